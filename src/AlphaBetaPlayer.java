@@ -4,12 +4,70 @@
  * @author Siyang Liu
  *
  */
-import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class AlphaBetaPlayer implements Player{
 	private int id;
 	private int oppId;
 	private int cols;
+	private int msecPerMove;
+	private int winLength = 4;
+	
+	// Engine parameters (EngineConfig.global() unless the game gives us
+	// some), and what init() read from them.
+	private EngineConfig config;
+	private GameRules rules;
+	private int maxDepth;
+	private BoardEvaluator.Weights weights = BoardEvaluator.Weights.DEFAULT;
+	
+	// Search knowledge kept from one move to the next: a transposition
+	// table, history scores (per player and column) for move ordering, and
+	// the line of play our last search expected.
+	private static final int TABLE_BITS = 18;
+	private TranspositionTable table;
+	private int[][] history;
+	private int[] pv = new int[0];
+	
+	// Decides when to stop deepening. The search itself stops at the
+	// deadline, the time manager's hard limit, even in mid-iteration; a
+	// ponder search has none.
+	private TimeManager time;
+	private long deadline = Long.MAX_VALUE;
+	
+	// The search tree, and the board the search moves along it. The ponder
+	// search has a board of its own but uses the same tree.
+	private NodeArena tree;
+	private Connect4Board searchBoard;
+	private Connect4Board ponderBoard;
+	
+	// The most nodes the tree may hold. Past that the search carries on
+	// without a tree rather than using up the heap.
+	private int maxNodes = NodeArena.defaultMaxNodes();
+	
+	// The moves and children of each position on the line being searched,
+	// in the order they are tried, indexed by the number of stones on the
+	// board.
+	private int[][] plyMoves;
+	private int[][] plyChildren;
+	
+	// Scores of the moves of a node one ply above the horizon.
+	private int[] childScores;
+	
+	// Background search on the opponent's time.
+	private boolean pondering = true;
+	private Ponder ponder;
+	
+	// A ponder search stops on its own after this many moves' worth of time,
+	// in case we are never asked to move again and never disposed of.
+	private static final int PONDER_LIMIT_MOVES = 4;
+	private static final ScheduledExecutorService PONDER_TIMER =
+			Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "AlphaBeta ponder timer");
+				t.setDaemon(true);
+				return t;
+			});
 	/**
 	 * sets name of the player
 	 * 
@@ -32,6 +90,91 @@ public class AlphaBetaPlayer implements Player{
 		this.id = id;
 		this.oppId = 3 - id; 
 		this.cols = cols;
+		this.msecPerMove = msecPerMove;
+		EngineConfig config = (this.config != null) ? this.config : EngineConfig.global();
+		this.table = new TranspositionTable(1 << config.getInt("table.bits", TABLE_BITS));
+		this.history = new int[3][cols];
+		this.time = new TimeManager(msecPerMove, config);
+		this.maxDepth = config.getInt("search.maxDepth", 0);
+		this.weights = BoardEvaluator.Weights.of(config);
+		this.pondering = config.getBoolean("search.ponder", pondering);
+		if(rules == null)
+			rules = GameRules.forName("most", winLength);
+		if(config.getInt("search.nodeBudget", 0) > 0)
+			this.maxNodes = config.getInt("search.nodeBudget", 0);
+		this.tree = new NodeArena(1 << 16, maxNodes);
+		this.searchBoard = new Connect4Board(rows, cols);
+		this.ponderBoard = new Connect4Board(rows, cols);
+		// Too big for bitboards, recounting every line at every leaf gets
+		// slow; counting lines as the search makes and takes back moves
+		// costs only the lines through one cell per move.
+		if(!Connect4Board.fitsInLong(rows, cols)) {
+			searchBoard.trackLines(winLength);
+			ponderBoard.trackLines(winLength);
+		}
+		this.childScores = new int[cols];
+		this.plyMoves = new int[rows * cols + 1][cols];
+		this.plyChildren = new int[rows * cols + 1][cols];
+	}
+	
+	/**
+	 * sets the engine parameters to read in init()
+	 * 
+	 * @param config an EngineConfig the parameters of the coming game
+	 */
+	public void setConfig(EngineConfig config) {
+		this.config = config;
+	}
+	
+	/**
+	 * sets how many pieces in a row make a line
+	 * 
+	 * @param winLength an int the line length of the coming game
+	 */
+	public void setWinLength(int winLength) {
+		this.winLength = winLength;
+	}
+	
+	/**
+	 * sets the rules of the coming game, which tell when it is over
+	 * 
+	 * @param rules a GameRules object the rules of the coming game
+	 */
+	public void setRules(GameRules rules) {
+		this.rules = rules;
+	}
+	
+	/**
+	 * stops pondering, as the game is done with us and there is no next
+	 * move to ponder for
+	 */
+	public void dispose() {
+		stopPondering();
+	}
+	
+	/**
+	 * Sets the most nodes the search tree may hold. Once it is full the
+	 * search goes on without keeping the rest of the tree, so it can't run
+	 * out of memory however large the board.
+	 * 
+	 * @param maxNodes an int the node budget
+	 */
+	public void setNodeBudget(int maxNodes) {
+		stopPondering();
+		this.maxNodes = maxNodes;
+		if(tree != null)
+			tree = new NodeArena(1 << 16, maxNodes);
+	}
+	
+	/**
+	 * gets how often the search tree was full and a position had to be
+	 * searched without one, over the whole game so far
+	 * 
+	 * @return the number of refused expansions
+	 */
+	@Override
+	public long getRefusedExpansions() {
+		return (tree == null) ? 0 : tree.totalRefused();
 	}
 	
     /**
@@ -47,36 +190,167 @@ public class AlphaBetaPlayer implements Player{
 		if(board.isFull())
 			throw new Error("Error: The board is full!");
 		
-		BST root = new BST(-1, board);
+		time.startMove(board, arb);
 		
-		for(int i = 0; i < cols; i++) {
-			if(!board.isColumnFull(i)) {
-				board.move(i, id);
-				root.addChild(i, new Connect4Board(board));
-				board.unmove(i, id);
+		// Have a legal move on record before the housekeeping below (stopping
+		// the ponder search), which can take a while.
+		for(int c = 0; c < cols; c++) {
+			if(board.isValidMove(c)) {
+				arb.setMove(c);
+				break;
 			}
 		}
-		
 		int searchDepth = 1;
+		int bestMove = -1;
+		
+		// If the opponent played the reply we were pondering on, pick up
+		// that search (best move and completed depth) where it left off. The
+		// tree is built anew, but the transposition table remembers what the
+		// ponder search found. Either way the background search has to stop
+		// before we touch the table or the tree.
+		Ponder p = stopPondering();
+		if(p != null && p.reply == oppMoveCol && sameBoard(p.board, board) && p.bestMove >= 0) {
+			arb.setMove(p.bestMove);
+			bestMove = p.bestMove;
+			searchDepth = p.depthDone + 1;
+		}
+		
+		// Old history scores fade so they don't drown out new ones.
+		for(int[] h: history) {
+			for(int i = 0; i < h.length; i++)
+				h[i] /= 2;
+		}
+		followPrincipalVariation(board, oppMoveCol);
+		
+		searchBoard.copyFrom(board);
+		int root = tree.reset();
+		tree.expand(root, searchBoard);
+		deadline = time.deadline();
+		
 		double Alpha = Double.NEGATIVE_INFINITY;
 		double Beta = Double.POSITIVE_INFINITY;
-		while(!arb.isTimeUp() && searchDepth <= board.numEmptyCells()) {
-			
-			alphabeta(root, searchDepth, Alpha, Beta, true, arb);
-			arb.setMove(root.chosenMove);
-			searchDepth++;
+		try {
+			while(!isTimeUp(arb) && searchDepth <= board.numEmptyCells() && (maxDepth == 0 || searchDepth <= maxDepth)) {
+				
+				int value = alphabeta(searchBoard, root, searchDepth, Alpha, Beta, true, arb);
+				// An iteration cut short is only good for a first guess.
+				if(isTimeUp(arb) && bestMove >= 0)
+					break;
+				if(tree.chosenMove(root) >= 0) {
+					arb.setMove(tree.chosenMove(root));
+					bestMove = tree.chosenMove(root);
+				}
+				pv = principalVariation(root, board.numEmptyCells());
+				searchDepth++;
+				time.iterationDone(bestMove, value);
+				if(time.shouldStop())
+					break;
+				}
+		}
+		finally {
+			if(pondering)
+				startPondering(board, bestMove);
+		}
+	}
+	
+	/**
+	 * Turns pondering on or off. When pondering, the player keeps searching
+	 * in the background after its move, on the position it expects after
+	 * the opponent's most likely reply.
+	 * 
+	 * @param pondering a boolean true to think on the opponent's time
+	 */
+	public void setPondering(boolean pondering) {
+		this.pondering = pondering;
+		if(!pondering)
+			stopPondering();
+	}
+	
+	/**
+	 * Starts pondering after our move. The reply we expect is the one in the
+	 * line of play the last search expected, which starts with our move.
+	 * There is nothing to ponder if either move ends the game.
+	 * 
+	 * @param board a Connect4Board object the position before our move
+	 * @param move an int the move we played
+	 */
+	private void startPondering(Connect4Board board, int move) {
+		if(move < 0 || pv.length < 2 || pv[0] != move)
+			return;
+		ponderBoard.copyFrom(board);
+		ponderBoard.moveFast(move, id);
+		if(rules.result(ponderBoard) != GameRules.NOT_OVER || !ponderBoard.isValidMove(pv[1]))
+			return;
+		ponderBoard.moveFast(pv[1], oppId);
+		if(rules.result(ponderBoard) != GameRules.NOT_OVER)
+			return;
+		deadline = Long.MAX_VALUE;
+		ponder = new Ponder(ponderBoard, pv[1]);
+	}
+	
+	/**
+	 * Stops the background search, if any, and waits for it to finish. It
+	 * checks for time up at every node, so this doesn't take long, and once
+	 * it returns the tree, the ponder board and the transposition table are
+	 * ours again.
+	 * 
+	 * @return the stopped search, or null if there was none
+	 */
+	private Ponder stopPondering() {
+		Ponder p = ponder;
+		ponder = null;
+		if(p == null)
+			return null;
+		p.stop.timeUp();
+		try {
+			p.thread.join();
+		} catch (InterruptedException e) {
+			return null;
+		}
+		return p;
+	}
+	
+	/**
+	 * whether or not two boards hold the same position
+	 * 
+	 * @return True if every cell matches
+	 */
+	private boolean sameBoard(Connect4Board a, Connect4Board b) {
+		if(a.numOccupiedCells() != b.numOccupiedCells())
+			return false;
+		for(int c = 0; c < cols; c++) {
+			if(a.numOccupiedCells(c) != b.numOccupiedCells(c))
+				return false;
+			for(int r = 0; r < a.numOccupiedCells(c); r++) {
+				if(a.get(r, c) != b.get(r, c))
+					return false;
 			}
+		}
+		return true;
+	}
+	
+	/**
+	 * whether the search has to stop: the game says time is up, or the move
+	 * has reached its deadline
+	 * 
+	 * @param arb an Arbitrator object
+	 * @return True if the search has to stop
+	 */
+	private boolean isTimeUp(Arbitrator arb) {
+		return arb.isTimeUp() || System.nanoTime() > deadline;
 	}
 	
 	/**
 	 * This method looks at all the possible future moves by looking at future moves of both
-	 * the player and the enemy through a binary search tree 
+	 * the player and the enemy through a search tree 
 	 * it cuts on computing time by breaking if they know the node isn't likely to happen 
 	 * due to either the player having a better option or the enemy player having a better option 
 	 * it returns the value of the best possible move
 	 *   
 	 * 
-	 * @param node a BST object these are the children moves we need to check if they are the best option
+	 * @param board a Connect4Board object the position at the node; moves are made and taken back on it
+	 * @param node an int the node in the tree whose children we need to check for the best option,
+	 * 		  or -1 below the point where the tree ran out of room
 	 * @param depth an int the search depth
 	 * @param alpha a double equal to negative infinity we compare to/ transform to the value to see if we can cut off nodes
 	 * @param beta a double equal to infinity we compare to/ transform to the value to see if we can cut off nodes
@@ -84,77 +358,233 @@ public class AlphaBetaPlayer implements Player{
 	 * @param arb an Arbitrator object
 	 * @return value an int that is the value of the best possible move.
 	 */
-	private int alphabeta(BST node, int depth, double alpha, double beta, boolean maxminimizingPlayer, Arbitrator arb) {
+	private int alphabeta(Connect4Board board, int node, int depth, double alpha, double beta, boolean maxminimizingPlayer, Arbitrator arb) {
 		
-		if(depth == 0 || node.isTerminal() || arb.isTimeUp()) {
-			node.value = evaluateNode(node);
-			return node.value;
+		if(depth == 0 || board.isFull() || isTimeUp(arb)) {
+			int value = evaluateNode(board);
+			if(node >= 0)
+				tree.setValue(node, value);
+			return value;
 		}
 		
-		if(node.isLeaf()){
-			
-			int moveId = maxminimizingPlayer ? id : oppId;
-			
-			for(int i = 0; i < cols; i++){
-				if(!node.board.isColumnFull(i)){
-					node.board.move(i , moveId);
-					node.addChild(i, new Connect4Board(node.board));
-					node.board.unmove(i, moveId);
-					}
+		// See what earlier searches (from this move or earlier ones) found
+		// out about this position. A deep enough result can be used as is,
+		// and a stored best move is worth trying first either way. Mirror
+		// images share an entry, with the move stored for the canonical one.
+		long key = board.canonicalHash();
+		int slot = table.find(key);
+		int tableMove = -1;
+		if(slot >= 0) {
+			tableMove = board.canonicalCol(table.move(slot));
+			if(tableMove >= 0 && !board.isValidMove(tableMove))
+				tableMove = -1;
+			int flag = table.flag(slot);
+			int stored = table.value(slot);
+			if(tableMove >= 0 && flag != TranspositionTable.MOVE_ONLY && table.depth(slot) >= depth
+					&& (flag == TranspositionTable.EXACT
+						|| (flag == TranspositionTable.LOWER && stored >= beta)
+						|| (flag == TranspositionTable.UPPER && stored <= alpha))) {
+				if(node >= 0) {
+					tree.setValue(node, stored);
+					tree.setChosenMove(node, tableMove);
 				}
+				return stored;
 			}
+		}
+		double alphaIn = alpha;
+		double betaIn = beta;
+		
+		int moveId = maxminimizingPlayer ? id : oppId;
+		
+		// One ply above the horizon every child would be a leaf, so score all
+		// the moves at once instead of building a node for each.
+		if(depth == 1) {
+			return scoreLastPly(board, node, key, moveId, maxminimizingPlayer, arb);
+		}
+		
+		int[] moves = plyMoves[board.numOccupiedCells()];
+		int[] children = plyChildren[board.numOccupiedCells()];
+		int n = tree.listChildren(node, board, moves, children);
+		orderMoves(moves, children, n, tableMove, history[moveId]);
 
+		int value;
+		int chosenMove = -1;
 		if(maxminimizingPlayer) {
-			int value = Integer.MIN_VALUE;
+			value = Integer.MIN_VALUE;
 
-			for(BST child: node.children) {
-				int newVal = alphabeta(child, depth - 1, alpha, beta, false, arb);//finds value of child
+			for(int i = 0; i < n; i++) {
+				int move = moves[i];
+				board.moveFast(move, moveId);
+				int newVal = alphabeta(board, children[i], depth - 1, alpha, beta, false, arb);//finds value of child
+				board.unmoveFast(move);
 				if(newVal > value) {
 					value = newVal;
-					node.value = value;
-					node.chosenMove = child.move;
+					chosenMove = move;
 					if(value > alpha) {
 						alpha = value;
 					}
 				}
 				else if (newVal == value) {
-					int currMoveDistFromCenter = Math.abs(cols/2 -node.chosenMove);
-					int newMoveDistFromCenter = Math.abs(cols/2 - child.move);
+					int currMoveDistFromCenter = Math.abs(cols/2 - chosenMove);
+					int newMoveDistFromCenter = Math.abs(cols/2 - move);
 					if(newMoveDistFromCenter < currMoveDistFromCenter) 
-						node.chosenMove = child.move;
+						chosenMove = move;
 						
 				}
 				if(alpha >= beta) {
+					history[moveId][move] += depth * depth;
 					break;
 				}
 			}
-			return value;
 		}
 
 		else {
 
-			int value = Integer.MAX_VALUE;
-			for(BST child: node.children) {
-				int newVal = alphabeta(child, depth - 1, alpha, beta, true, arb);
+			value = Integer.MAX_VALUE;
+			for(int i = 0; i < n; i++) {
+				int move = moves[i];
+				board.moveFast(move, moveId);
+				int newVal = alphabeta(board, children[i], depth - 1, alpha, beta, true, arb);
+				board.unmoveFast(move);
 				if(newVal < value) {
 					value = newVal;
-					node.value = value;
-					node.chosenMove = child.move;
+					chosenMove = move;
 					if(value < beta) {
 						beta = value;
 					}
 				}
 				else if (newVal == value) {
-					int currMoveDistFromCenter = Math.abs(cols/2 -node.chosenMove);
-					int newMoveDistFromCenter = Math.abs(cols/2 - child.move);
+					int currMoveDistFromCenter = Math.abs(cols/2 - chosenMove);
+					int newMoveDistFromCenter = Math.abs(cols/2 - move);
 					if(newMoveDistFromCenter < currMoveDistFromCenter) 
-						node.chosenMove = child.move;
+						chosenMove = move;
 				}
 				if(alpha >= beta) {
+					history[moveId][move] += depth * depth;
 					break;
 				}
 			}
-			return value;
+		}
+		
+		if(node >= 0) {
+			tree.setValue(node, value);
+			tree.setChosenMove(node, chosenMove);
+		}
+		
+		// Results of a search that ran out of time are not trustworthy.
+		if(!isTimeUp(arb)) {
+			int flag = (value <= alphaIn) ? TranspositionTable.UPPER
+					: (value >= betaIn) ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+			table.store(key, depth, value, flag, board.canonicalCol(chosenMove));
+		}
+		return value;
+	}
+	
+	/**
+	 * Searches a node one ply above the horizon: scores every move with a
+	 * single BoardEvaluator.scoreChildren() call and picks the best for the
+	 * player to move, preferring moves near the center on ties like
+	 * alphabeta() does. All moves are scored, so the value is exact.
+	 * 
+	 * @param board a Connect4Board object the position at the node
+	 * @param node an int the node to search
+	 * @param key a long the canonical hash of the board
+	 * @param moveId an int the player to move
+	 * @param maxminimizingPlayer a boolean whether we are the player to move
+	 * @param arb an Arbitrator object
+	 * @return the value of the node
+	 */
+	private int scoreLastPly(Connect4Board board, int node, long key, int moveId, boolean maxminimizingPlayer, Arbitrator arb) {
+		BoardEvaluator.scoreChildren(board, moveId, id, winLength, weights, childScores);
+		int value = maxminimizingPlayer ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+		int move = -1;
+		for(int c = 0; c < cols; c++) {
+			int score = childScores[c];
+			if(score == Integer.MIN_VALUE)
+				continue;
+			boolean better = maxminimizingPlayer ? score > value : score < value;
+			if(better || (score == value && Math.abs(cols/2 - c) < Math.abs(cols/2 - move))) {
+				value = score;
+				move = c;
+			}
+		}
+		if(node >= 0) {
+			tree.setValue(node, value);
+			tree.setChosenMove(node, move);
+		}
+		if(!isTimeUp(arb))
+			table.store(key, 1, value, TranspositionTable.EXACT, board.canonicalCol(move));
+		return value;
+	}
+	
+	/**
+	 * Puts the moves of a position (and their children alongside) in the
+	 * order they should be searched: the move remembered in the
+	 * transposition table first, then the rest by how often they have
+	 * caused cutoffs. Good moves first means more cutoffs.
+	 * 
+	 * @param moves an int array the moves, which get reordered
+	 * @param children an int array the child of each move, or -1
+	 * @param n an int the number of moves
+	 * @param tableMove an int the move from the transposition table, or -1
+	 * @param hist an int array the history scores of the player to move
+	 */
+	private void orderMoves(int[] moves, int[] children, int n, int tableMove, int[] hist) {
+		for(int i = 1; i < n; i++) {
+			int move = moves[i];
+			int child = children[i];
+			int key = orderKey(move, tableMove, hist);
+			int j = i - 1;
+			for(; j >= 0 && orderKey(moves[j], tableMove, hist) < key; j--) {
+				moves[j + 1] = moves[j];
+				children[j + 1] = children[j];
+			}
+			moves[j + 1] = move;
+			children[j + 1] = child;
+		}
+	}
+	
+	private int orderKey(int move, int tableMove, int[] hist) {
+		return (move == tableMove) ? Integer.MAX_VALUE : hist[move];
+	}
+	
+	/**
+	 * Follows the chosen moves down from the root to get the line of play
+	 * the search expects.
+	 * 
+	 * @param root an int the root of the search
+	 * @param maxLength an int the most moves the line can have
+	 * @return an int array the expected moves, ours first
+	 */
+	private int[] principalVariation(int root, int maxLength) {
+		int[] line = new int[maxLength];
+		int n = 0;
+		int node = root;
+		while(node >= 0 && n < line.length && tree.chosenMove(node) >= 0) {
+			line[n++] = tree.chosenMove(node);
+			node = tree.child(node, tree.chosenMove(node));
+		}
+		return java.util.Arrays.copyOf(line, n);
+	}
+	
+	/**
+	 * If the opponent answered our last move the way we expected, the rest
+	 * of the line we expected is a good guess for how to play on. Remember it
+	 * in the transposition table so those moves get searched first.
+	 * 
+	 * @param board a Connect4Board object the current position
+	 * @param oppMoveCol an int the opponent's last move
+	 */
+	private void followPrincipalVariation(Connect4Board board, int oppMoveCol) {
+		if(pv.length < 3 || pv[1] != oppMoveCol)
+			return;
+		Connect4Board b = searchBoard;
+		b.copyFrom(board);
+		int moveId = id;
+		for(int i = 2; i < pv.length && b.isValidMove(pv[i]); i++) {
+			table.storeMove(b.canonicalHash(), b.canonicalCol(pv[i]));
+			b.moveFast(pv[i], moveId);
+			moveId = 3 - moveId;
 		}
 	}
 	
@@ -165,129 +595,67 @@ public class AlphaBetaPlayer implements Player{
 	 * and returns the difference.
 	 *   
 	 * 
-	 * @param node a BST object the last move the player did
+	 * @param board a Connect4Board object the position after the last move
 	 */
-	private int evaluateNode(BST node) {
-		int myScore = calcScore(node.board, id);
-		int oppScore = calcScore(node.board,oppId);
-		return myScore - oppScore;
+	private int evaluateNode(Connect4Board board) {
+		return BoardEvaluator.score(board, id, winLength, weights);
 	}
 
 	/**
 	 * This method figures out if you scored a point by finding how many times 
-	 * there are 4 player moves that are right next to each other in a line, either horizontally
+	 * there are winLength player moves that are right next to each other in a line, either horizontally
 	 * Vertically or diagonally. it then adds up all the occurrences and returns the total score
 	 *   
 	 * 
 	 * @param board a Connect4Board object that shows the configuration of the board
 	 * @param id an integer that determines who the player is
-	 * @return score an int that is the total number of times the player has 4 tiles in a row
+	 * @return score an int that is the total number of times the player has winLength tiles in a row
 	 */
 	public int calcScore(Connect4Board board, int id) {
-		
-		final int rows = board.numRows();
-		final int cols = board.numCols();
-		int score = 0;		
-		
-		//horizontal
-		for(int r = 0; r < rows; r++) {
-			for(int c = 0; c <= cols - 4; c++) {
-				if(board.get(r, c + 0) != id) continue;
-				if(board.get(r, c + 1) != id) continue;
-				if(board.get(r, c + 2) != id) continue;
-				if(board.get(r, c + 3) != id) continue;
-				score++;
-		
-			}
-		}
-		
-		//vertical 
-		for(int c = 0; c < cols; c++) {
-			for(int r = 0; r <= rows - 4; r++) {
-				if(board.get(r + 0, c) != id)continue;
-				if(board.get(r + 1, c) != id)continue;
-				if(board.get(r + 2, c) != id)continue;
-				if(board.get(r + 3, c) != id)continue;
-				score++;
-				
-				
-			}
-		}
-		
-		//diagonal 
-		for(int c = 0; c <= cols - 4; c++) {
-			for(int r = 0; r <= rows - 4; r++) {
-				if(board.get(r + 0, c + 0) != id)continue;
-				if(board.get(r + 1, c + 1) != id)continue;
-				if(board.get(r + 2, c + 2) != id)continue;
-				if(board.get(r + 3, c + 3) != id)continue;
-				score++;
-				
-			}
-		}
-		
-		for(int c = 0; c <= cols - 4; c++) {
-			for(int r = rows - 1; r >= 4 - 1; r--) {
-				if(board.get(r - 0, c + 0) != id)continue;
-				if(board.get(r - 1, c + 1) != id)continue;
-				if(board.get(r - 2, c + 2) != id)continue;
-				if(board.get(r - 3, c + 3) != id)continue;
-				score++;
-			}
-		}
-		return score;
+		return BoardEvaluator.countLines(board, id, winLength);
 	}
 	
-	private class BST{
-		private Connect4Board board;
-		private int move;
-		private ArrayList<BST> children; 
-		private int chosenMove;
-		private int value;
-		
-	/**
-	 * GameTree constructor. creates a game tree and puts the different nodes 
-	 * into an array called children 
-	 * the nodes consist of the the move and the board configuration of the move 
-	 * 
-	 * @param move : the move number of the current node
-	 * @param board : the board configuration of that move 
-	 */
-		public BST(int move, Connect4Board board) {
-			this.move = move;
-			this.board = board;
-			children = new ArrayList<BST>();
-		}
-		
-		/**
-		 * this adds a new node to the BST array 
-		 * 
-		 * @return a new node within the array children 
-		 */
-		public void addChild(int move, Connect4Board board) {
-			children.add(new BST(move, board));
-			
-		}
+	private class Ponder implements Runnable{
+		private final Connect4Board board;
+		private final int reply;
+		private final Arbitrator stop;
+		private final Thread thread;
+		private int bestMove = -1;
+		private int depthDone = 0;
 		
 		/**
-		 * whether or not the node is a leaf if it has no children.
+		 * Ponder constructor. starts an iterative deepening search of the position
+		 * after the predicted reply in a background thread
 		 * 
-		 * @return True if the node is a leaf 
+		 * @param board : the position after the predicted reply, ours to search on until stopped
+		 * @param reply : the column of the predicted reply
 		 */
-		public boolean isLeaf() {
-			return children.size() == 0;
+		public Ponder(Connect4Board board, int reply) {
+			this.board = board;
+			this.reply = reply;
+			this.stop = new Arbitrator();
+			this.thread = new Thread(this, "AlphaBeta ponder");
+			thread.setDaemon(true);
+			thread.start();
+			PONDER_TIMER.schedule(stop::timeUp, (long) PONDER_LIMIT_MOVES * msecPerMove, TimeUnit.MILLISECONDS);
 		}
 		
 		/**
-		 * whether or not the board is full 
-		 * 
-		 * @return True if the board is full
+		 * searches one depth deeper at a time until stopped, remembering the best
+		 * move of the deepest search that completed
 		 */
-		public boolean isTerminal() {
-			return board.isFull();
+		public void run() {
+			int root = tree.reset();
+			tree.expand(root, board);
+			int depth = 1;
+			while(!stop.isTimeUp() && depth <= board.numEmptyCells() && (maxDepth == 0 || depth <= maxDepth)) {
+				alphabeta(board, root, depth, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, true, stop);
+				if(stop.isTimeUp())
+					break;
+				bestMove = tree.chosenMove(root);
+				depthDone = depth;
+				depth++;
+			}
 		}
-	
-
-	
+	}
 }
-}
\ No newline at end of file
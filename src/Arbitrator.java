@@ -12,6 +12,25 @@ public class Arbitrator
     private int moveCol = -1;
     private boolean timeUp = false;
 
+    // The time control for this move, as set by the game.
+    private final int msecForMove;
+    private final int msecRemaining;
+    private final int msecIncrement;
+
+    public Arbitrator() {
+        this(-1, -1, 0);
+    }
+
+    // msecForMove is how long the game will wait for this move;
+    // msecRemaining is what is left on the player's clock, or -1 if the
+    // game has no clock and just allows a fixed time per move; and
+    // msecIncrement is what the clock gains back after every move.
+    public Arbitrator(int msecForMove, int msecRemaining, int msecIncrement) {
+        this.msecForMove = msecForMove;
+        this.msecRemaining = msecRemaining;
+        this.msecIncrement = msecIncrement;
+    }
+
     // Set the column of the next move.  Must be called by the
     // player so that the game can access the move.  This
     // may be called many times safely.
@@ -42,6 +61,22 @@ public class Arbitrator
         timeUp = true;
     }
 
+    // How long the game will wait for this move, or -1 if unknown.
+    public final synchronized int getMsecForMove() {
+        return msecForMove;
+    }
+
+    // Time left on the player's clock at the start of this move, or -1
+    // if the game uses a fixed time per move instead of a clock.
+    public final synchronized int getMsecRemaining() {
+        return msecRemaining;
+    }
+
+    // Time added to the player's clock after each move.
+    public final synchronized int getMsecIncrement() {
+        return msecIncrement;
+    }
+
     // Get the column of the next move.  The game calls this
     // method to access the player's next move.
     public final synchronized int getMove() { 
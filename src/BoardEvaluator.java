@@ -0,0 +1,304 @@
+/**
+ * Fast static evaluation for the search players. The score is the same one
+ * their calcScore() methods compute, the number of lines of K a player
+ * has (overlapping lines counted separately), but on boards that keep
+ * bitboards it is found with a few shifts, ands and bit counts per
+ * direction instead of a loop over every cell: for a direction that moves
+ * s bits, b &amp; (b &gt;&gt;&gt; s) marks pairs, doing the same with 2s
+ * to the pairs marks fours, and so on, doubling the run each time until
+ * it is K long. Boards too big for bitboards fall back to LineTable, and
+ * boards that keep a running count of their lines (see
+ * Connect4Board.trackLines()) just return it.
+ *
+ * The methods without a line length are for plain connect-4, which has a
+ * path of its own with the two steps written out.
+ *
+ * scoreChildren() scores all the moves of a position in one call, straight
+ * from the parent's bitboards and without making any moves, which is what
+ * a greedy player or the last ply of a search needs.
+ *
+ * The versions that take Weights add tunable terms to the line count (see
+ * EngineConfig): runs of K-1 and pieces in the middle column. With the
+ * default weights they score exactly as the plain versions do.
+ *
+ * @author Siyang Liu
+ *
+ */
+public class BoardEvaluator
+{
+	/**
+	 * Weights of the terms of the score, each counted for the player minus
+	 * the opponent.
+	 */
+	public static final class Weights
+	{
+		// Lines of K only, as the plain score.
+		public static final Weights DEFAULT = new Weights(1, 0, 0);
+
+		public final int line, threat, center;
+
+		public Weights(int line, int threat, int center)
+		{
+			this.line = line;
+			this.threat = threat;
+			this.center = center;
+		}
+
+		/**
+		 * Read the eval.* keys of a configuration, defaulting to DEFAULT.
+		 * @param config The configuration
+		 * @return The weights
+		 */
+		public static Weights of(EngineConfig config)
+		{
+			return new Weights(config.getInt("eval.line", DEFAULT.line),
+					config.getInt("eval.threat", DEFAULT.threat),
+					config.getInt("eval.center", DEFAULT.center));
+		}
+
+		public boolean linesOnly()
+		{
+			return threat == 0 && center == 0;
+		}
+	}
+
+	/**
+	 * Count the lines of four in a bitboard laid out as by
+	 * Connect4Board.bitboard().
+	 * @param bits The pieces of one player
+	 * @param rows The number of rows of the board
+	 * @return The number of lines of four
+	 */
+	public static int countFours(long bits, int rows)
+	{
+		final int h = rows + 1;
+		return fours(bits, 1) + fours(bits, h) + fours(bits, h + 1)
+				+ fours(bits, h - 1);
+	}
+
+	private static int fours(long bits, int shift)
+	{
+		long pairs = bits & (bits >>> shift);
+		return Long.bitCount(pairs & (pairs >>> (2 * shift)));
+	}
+
+	/**
+	 * Count the lines of K in a bitboard laid out as by
+	 * Connect4Board.bitboard().
+	 * @param bits The pieces of one player
+	 * @param rows The number of rows of the board
+	 * @param winLength K
+	 * @return The number of lines of K
+	 */
+	public static int countLines(long bits, int rows, int winLength)
+	{
+		if (winLength == 4) return countFours(bits, rows);
+		final int h = rows + 1;
+		return lines(bits, 1, winLength) + lines(bits, h, winLength)
+				+ lines(bits, h + 1, winLength) + lines(bits, h - 1, winLength);
+	}
+
+	// Runs of len marked at their first cell, and two overlapping runs of
+	// len make one of up to 2 * len.
+	private static int lines(long bits, int shift, int winLength)
+	{
+		long runs = bits;
+		for (int len = 1; len < winLength && runs != 0;) {
+			int step = Math.min(len, winLength - len);
+			long by = (long) step * shift;
+			runs &= (by < 64) ? (runs >>> by) : 0;
+			len += step;
+		}
+		return Long.bitCount(runs);
+	}
+
+	/**
+	 * Count the lines of four a player has.
+	 * @param board The position
+	 * @param id The player
+	 * @return The number of lines of four
+	 */
+	public static int countFours(Connect4Board board, int id)
+	{
+		return countLines(board, id, 4);
+	}
+
+	/**
+	 * Count the lines of K a player has.
+	 * @param board The position
+	 * @param id The player
+	 * @param winLength K
+	 * @return The number of lines of K
+	 */
+	public static int countLines(Connect4Board board, int id, int winLength)
+	{
+		if (board.trackedLineLength() == winLength) {
+			return board.lineCount(id);
+		}
+		if (board.hasBitboards()) {
+			return countLines(board.bitboard(id), board.numRows(), winLength);
+		}
+		return LineTable.get(board.numRows(), board.numCols(), winLength)
+				.countLines(board, id);
+	}
+
+	/**
+	 * Score a position for a player: their lines of four minus the
+	 * opponent's.
+	 * @param board The position
+	 * @param id The player to score for
+	 * @return The score
+	 */
+	public static int score(Connect4Board board, int id)
+	{
+		return countFours(board, id) - countFours(board, 3 - id);
+	}
+
+	/**
+	 * Score a position for a player: their lines of K minus the
+	 * opponent's.
+	 * @param board The position
+	 * @param id The player to score for
+	 * @param winLength K
+	 * @return The score
+	 */
+	public static int score(Connect4Board board, int id, int winLength)
+	{
+		return countLines(board, id, winLength)
+				- countLines(board, 3 - id, winLength);
+	}
+
+	/**
+	 * Score every move of a position at once for connect-4; see the
+	 * version with a line length.
+	 */
+	public static void scoreChildren(Connect4Board board, int mover, int id,
+			int[] scores)
+	{
+		scoreChildren(board, mover, id, 4, scores);
+	}
+
+	/**
+	 * Score every move of a position at once, as score() would score the
+	 * position after each of them. Only the mover's lines change, so the
+	 * other player's are counted once for all the moves.
+	 * @param board The position; it is left as it was
+	 * @param mover The player about to move
+	 * @param id The player to score for
+	 * @param winLength K
+	 * @param scores Gets the score of the move in each column, or
+	 *        Integer.MIN_VALUE for a full column; at least numCols() long
+	 */
+	public static void scoreChildren(Connect4Board board, int mover, int id,
+			int winLength, int[] scores)
+	{
+		final int rows = board.numRows();
+		final int cols = board.numCols();
+		final int sign = (mover == id) ? 1 : -1;
+		if (board.hasBitboards()) {
+			final long mine = board.bitboard(mover);
+			final int other = countLines(board.bitboard(3 - mover), rows,
+					winLength);
+			for (int c = 0; c < cols; c++) {
+				int height = board.height(c);
+				long child = mine | (1L << (c * (rows + 1) + height));
+				int score = sign * (countLines(child, rows, winLength) - other);
+				scores[c] = (height == rows) ? Integer.MIN_VALUE : score;
+			}
+			return;
+		}
+		final int other = countLines(board, 3 - mover, winLength);
+		for (int c = 0; c < cols; c++) {
+			if (board.height(c) == rows) {
+				scores[c] = Integer.MIN_VALUE;
+				continue;
+			}
+			board.moveFast(c, mover);
+			scores[c] = sign * (countLines(board, mover, winLength) - other);
+			board.unmoveFast(c);
+		}
+	}
+
+	/**
+	 * Count a player's pieces in the middle column, or the middle two
+	 * columns of an even width.
+	 * @param board The position
+	 * @param id The player
+	 * @return The number of pieces
+	 */
+	public static int countCenter(Connect4Board board, int id)
+	{
+		final int rows = board.numRows();
+		final int cols = board.numCols();
+		if (board.hasBitboards()) {
+			long column = (1L << rows) - 1;
+			long mask = (column << ((cols / 2) * (rows + 1)))
+					| (column << (((cols - 1) / 2) * (rows + 1)));
+			return Long.bitCount(board.bitboard(id) & mask);
+		}
+		int count = 0;
+		for (int c = (cols - 1) / 2; c <= cols / 2; c++) {
+			for (int r = 0; r < board.height(c); r++) {
+				if (board.getFast(r * cols + c) == id) count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Score a position for a player with weights.
+	 * @param board The position
+	 * @param id The player to score for
+	 * @param winLength K
+	 * @param weights The weights
+	 * @return The score
+	 */
+	public static int score(Connect4Board board, int id, int winLength,
+			Weights weights)
+	{
+		int score = weights.line * score(board, id, winLength);
+		if (weights.threat != 0 && winLength > 1) {
+			score += weights.threat * score(board, id, winLength - 1);
+		}
+		if (weights.center != 0) {
+			score += weights.center
+					* (countCenter(board, id) - countCenter(board, 3 - id));
+		}
+		return score;
+	}
+
+	/**
+	 * Score every move of a position at once with weights, as
+	 * score(board, id, winLength, weights) would score the position after
+	 * each of them.
+	 * @param board The position; it is left as it was
+	 * @param mover The player about to move
+	 * @param id The player to score for
+	 * @param winLength K
+	 * @param weights The weights
+	 * @param scores Gets the score of the move in each column, or
+	 *        Integer.MIN_VALUE for a full column; at least numCols() long
+	 */
+	public static void scoreChildren(Connect4Board board, int mover, int id,
+			int winLength, Weights weights, int[] scores)
+	{
+		final int cols = board.numCols();
+		if (weights.linesOnly()) {
+			scoreChildren(board, mover, id, winLength, scores);
+			if (weights.line == 1) return;
+			for (int c = 0; c < cols; c++) {
+				if (scores[c] != Integer.MIN_VALUE) scores[c] *= weights.line;
+			}
+			return;
+		}
+		for (int c = 0; c < cols; c++) {
+			if (board.height(c) == board.numRows()) {
+				scores[c] = Integer.MIN_VALUE;
+				continue;
+			}
+			board.moveFast(c, mover);
+			scores[c] = score(board, id, winLength, weights);
+			board.unmoveFast(c);
+		}
+	}
+}
@@ -17,29 +17,31 @@
  * Credits:          Based on code originally by David Martin, 2004
  **************************************************************************** */
 
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
 import java.io.File;
 import java.text.NumberFormat;
 import java.text.ParsePosition;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.geometry.Pos;
 import javafx.scene.Group;
 import javafx.scene.Scene;
+import javafx.scene.SnapshotParameters;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.CheckBox;
 import javafx.scene.control.Label;
+import javafx.scene.control.ListView;
 import javafx.scene.control.Slider;
 import javafx.scene.control.Spinner;
 import javafx.scene.control.TextFormatter;
 import javafx.scene.control.TextInputDialog;
 import javafx.scene.control.Alert.AlertType;
+import javafx.scene.image.Image;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
@@ -47,6 +49,7 @@ import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Circle;
 import javafx.stage.FileChooser;
+import javafx.stage.Modality;
 import javafx.stage.Stage;
 import javafx.util.converter.IntegerStringConverter;
 
@@ -55,7 +58,6 @@ import javafx.util.converter.IntegerStringConverter;
 // - The whole codebase should be refactored as the logic between Connect4.java and Connect4Game.java is extremely
 //   out of date and confusing. Right now, Connect4Game.java runs Connect4.java since Connect4.java now owns the GUI,
 //   but we should update all of this.
-// - Add a log window to the game that shows game results (DQ,score,etc.)
 // - Stop the match when the losing player can't catch up
 // - Allow an odd number of seed moves
 
@@ -82,6 +84,11 @@ public class Connect4 extends Application
 	// Game buttons
 	private Button newMatchButton, stepButton, pauseButton, autoplayButton;
 
+	// Results of finished games, and the pop-up used to announce them
+	private ListView<String> resultsList;
+	private static final int MAX_RESULTS = 1000;
+	private Alert announcement;
+
 	// Drawing canvas to show the game
 	private Canvas canvas;
 
@@ -92,8 +99,10 @@ public class Connect4 extends Application
 	// Scoreboard labels
 	private Label p1GamesLabel, p1ScoreLabel, p2GamesLabel, p2ScoreLabel;
 	
-	// Speed slider
+	// Speed slider, and the minimum time between auto-play moves it
+	// selects (read by the game loop thread)
 	Slider speedSlider;
+	private volatile int stepDelay;
 
 	// Reference to the underlying game object that keeps track of game logic
 	private Connect4Game c4Game;
@@ -103,6 +112,16 @@ public class Connect4 extends Application
 	private int mouseHoveringCol;
 	private boolean isMouseHovering;
 
+	// Sprite indices; 0, 1 and 2 match the cell values of Connect4Board.
+	private static final int SPRITE_HOVER = 3;
+
+	// What is currently drawn in each cell, or -1 if the cell needs drawing.
+	private int[] drawnCells;
+	private int drawnCols;
+
+	// Pre-rendered pieces, indexed by sprite.
+	private Image[] sprites;
+
 	// Print program usage and exit.
 	private static void usage() {
 		System.err.println();
@@ -112,13 +131,23 @@ public class Connect4 extends Application
 		System.err.println("    c - Number of columns, >= 4.");
 		System.err.println("    n - Number of games per match.");
 		System.err.println("    t - Time allowed per move (msec).");
+		System.err.println("   tc - Clock time per player per game (msec);");
+		System.err.println("        overrides t when given.");
+		System.err.println("  inc - Clock increment per move (msec).");
 		System.err.println("   p1 - Class name for player #1.");
 		System.err.println("   p2 - Class name for player #2.");
 		System.err.println("   mp - Match play?  One of {on,off}.");
 		System.err.println("   nr - Number of random moves, even, >=0, <=rows*cols.");
 		System.err.println(" game - Which game to play:");
-		System.err.println("        first - First Connect-4 wins.");
-		System.err.println("         most - Most Connect-4s wins.");
+		System.err.println("        first - First Connect-K wins.");
+		System.err.println("         most - Most Connect-Ks wins.");
+		System.err.println("    k - Pieces in a row that count, >= 2,");
+		System.err.println("        <= max(rows, cols); default 4.");
+		System.err.println("  rec - File to append finished games to.");
+		System.err.println(" seed - Random seed, to replay a match exactly.");
+		System.err.println("config - Engine parameters file (key=value lines).");
+		System.err.println("  set - One engine parameter, key=value; may be");
+		System.err.println("        repeated, and wins over config.");
 		System.err.println();
 		System.err.println("The player classes must be in CLASSPATH.");
 		System.err.println();
@@ -136,6 +165,13 @@ public class Connect4 extends Application
 		boolean matchPlay = false;
 		String p1 = null;
 		String p2 = null;
+		String recordFile = null;
+		int msecPerGame = 0;
+		int msecIncrement = 0;
+		int winLength = 4;
+		Long seed = null;
+		EngineConfig config = new EngineConfig();
+		List<String> settings = new java.util.ArrayList<String>();
 
 		List<String> args = getParameters().getRaw();
 
@@ -162,7 +198,13 @@ public class Connect4 extends Application
 			if (args.get(i).equals("-game")) {
 				if (++i == args.size()) usage();
 				game = args.get(i);
-				if (!game.equals("first") && !game.equals("most")) usage();
+				if (GameRules.forName(game, 4) == null) usage();
+				continue;
+			}
+			if (args.get(i).equals("-k")) {
+				if (++i == args.size()) usage();
+				winLength = Integer.parseInt(args.get(i));
+				if (winLength < 2) usage();
 				continue;
 			}
 			if (args.get(i).equals("-mp")) {
@@ -178,6 +220,18 @@ public class Connect4 extends Application
 				if (msec < 0) usage();
 				continue;
 			}
+			if (args.get(i).equals("-tc")) {
+				if (++i == args.size()) usage();
+				msecPerGame = Integer.parseInt(args.get(i));
+				if (msecPerGame < 0) usage();
+				continue;
+			}
+			if (args.get(i).equals("-inc")) {
+				if (++i == args.size()) usage();
+				msecIncrement = Integer.parseInt(args.get(i));
+				if (msecIncrement < 0) usage();
+				continue;
+			}
 			if (args.get(i).equals("-p1")) {
 				if (++i == args.size()) usage();
 				p1 = args.get(i);
@@ -188,6 +242,27 @@ public class Connect4 extends Application
 				p2 = args.get(i);
 				continue;
 			}
+			if (args.get(i).equals("-rec")) {
+				if (++i == args.size()) usage();
+				recordFile = args.get(i);
+				continue;
+			}
+			if (args.get(i).equals("-seed")) {
+				if (++i == args.size()) usage();
+				seed = Long.parseLong(args.get(i));
+				continue;
+			}
+			if (args.get(i).equals("-config")) {
+				if (++i == args.size()) usage();
+				config = EngineConfig.load(new File(args.get(i)));
+				continue;
+			}
+			if (args.get(i).equals("-set")) {
+				if (++i == args.size()) usage();
+				if (args.get(i).indexOf('=') <= 0) usage();
+				settings.add(args.get(i));
+				continue;
+			}
 			if (args.get(i).equals("-n")) {
 				if (++i == args.size()) usage();
 				ngames = Integer.parseInt(args.get(i));
@@ -197,9 +272,19 @@ public class Connect4 extends Application
 			usage();
 		}
 		if (numRandMoves > rows*cols) usage();
-
-		return new Connect4Game (rows, cols, game, msec, ngames, numRandMoves, 
-				matchPlay, p1, p2, this);
+		if (winLength > Math.max(rows, cols)) usage();
+		for (String setting : settings) {
+			config.set(setting);
+		}
+		EngineConfig.setGlobal(config);
+
+		Connect4Game c4 = new Connect4Game (rows, cols, game, msec, ngames,
+				numRandMoves, matchPlay, p1, p2, this);
+		c4.setRecordFile(recordFile);
+		c4.setTimeControl(msecPerGame, msecIncrement);
+		c4.setWinLength(winLength);
+		if (seed != null) c4.setSeed(seed);
+		return c4;
 	}
 
 	public static final void main (String[] args) throws Exception {
@@ -239,25 +324,25 @@ public class Connect4 extends Application
 
 		newMatchButton = new Button("New Match");
 		newMatchButton.setOnAction(actionEvent -> {
-			c4Game.newMatch();
+			c4Game.submit(c4Game::newMatch);
 		});
 
 
 		stepButton = new Button("Step");
 		stepButton.setOnAction(actionEvent -> {
-			c4Game.step();
+			c4Game.submit(c4Game::step);
 		});
 
 
 		pauseButton = new Button("Pause");
 		pauseButton.setOnAction(actionEvent -> {
-			c4Game.pause();
+			c4Game.submit(c4Game::pause);
 		});
 
 
 		autoplayButton = new Button("Auto-Play");
 		autoplayButton.setOnAction(actionEvent -> {
-			c4Game.play();
+			c4Game.submit(c4Game::play);
 		});
 
 		changePlayer1Button = new Button("Change");
@@ -291,7 +376,8 @@ public class Connect4 extends Application
 				}
 
 				if (selectedFile != null) {
-					c4Game.changeP1(className, name);
+					final String p1Class = className, p1Name = name;
+					c4Game.submit(() -> c4Game.changeP1(p1Class, p1Name));
 				}
 			}
 
@@ -330,7 +416,8 @@ public class Connect4 extends Application
 				}
 
 				if (selectedFile != null) {
-					c4Game.changeP2(className, name);
+					final String p2Class = className, p2Name = name;
+					c4Game.submit(() -> c4Game.changeP2(p2Class, p2Name));
 				}
 			}
 		});
@@ -338,10 +425,10 @@ public class Connect4 extends Application
 		p2Label.setTextFill(Color.BLUE);
 
 		numGames = 1;//c4Game.getNumGames();
-		numGamesSpinner = new Spinner<Integer>(1, 25, numGames);
+		numGamesSpinner = new Spinner<Integer>(1, 1000, numGames);
 		numGamesSpinner.valueProperty().addListener((obs, oldValue, newValue) -> {
 			numGames = newValue;
-			c4Game.changeNGames(numGames);
+			c4Game.submit(() -> c4Game.changeNGames(newValue));
 		});
 		numGamesSpinner.setEditable(true);
 		NumberFormat format = NumberFormat.getIntegerInstance();
@@ -371,7 +458,8 @@ public class Connect4 extends Application
 				else newValue--;
 			}
 			seedMoves = newValue;
-			c4Game.changeNumRandMoves(seedMoves);
+			final int nmoves = seedMoves;
+			c4Game.submit(() -> c4Game.changeNumRandMoves(nmoves));
 			numSeedMovesSpinner.getValueFactory().setValue(seedMoves);
 		});
 		numSeedMovesSpinner.setEditable(true);
@@ -396,7 +484,10 @@ public class Connect4 extends Application
 		maxMoveTimeSpinner = new Spinner<Integer>(100, 1000, moveTime);
 		maxMoveTimeSpinner.valueProperty().addListener((obs, oldValue, newValue) -> {
 			moveTime = newValue;
-			c4Game.changeMaxMoveTime(moveTime);
+			// Only the user's changes go to the game, not applyState()'s
+			if (!applyingState) {
+				c4Game.submit(() -> c4Game.changeMaxMoveTime(newValue));
+			}
 		});
 		maxMoveTimeSpinner.setEditable(true);
 		TextFormatter<Integer> formatter3 = new TextFormatter<Integer>(new IntegerStringConverter(), moveTime, 	
@@ -426,6 +517,10 @@ public class Connect4 extends Application
 		p2ScoreLabel.setTextFill(Color.BLUE);
 		
 		speedSlider = new Slider(0, 1, 0.5);
+		stepDelay = (int) (speedSlider.getValue() * 500);
+		speedSlider.valueProperty().addListener((obs, oldValue, newValue) -> {
+			stepDelay = (int) (newValue.doubleValue() * 500);
+		});
 
 		// Setup scoreboard
 		HBox scoreBoard = new HBox();
@@ -492,6 +587,12 @@ public class Connect4 extends Application
 		speedBox.setId("hbox");
 		leftGrid.add(speedBox, 0, 7);
 		GridPane.setColumnSpan(speedBox, 2);
+
+		resultsList = new ListView<String>();
+		resultsList.setId("results");
+		leftGrid.add(new Label("Results:"), 0, 8);
+		leftGrid.add(resultsList, 0, 9);
+		GridPane.setColumnSpan(resultsList, 2);
 		
 
 		// Set up a canvas for drawing the game
@@ -515,12 +616,14 @@ public class Connect4 extends Application
 		borderPane.setCenter(canvas);
 		BorderPane.setAlignment(canvas, Pos.TOP_CENTER);
 		canvas.setOnMouseClicked(e -> {
+			if (board == null) return;
 			double width = canvas.getWidth();
 			double columnWidth = width / board.numCols();
 			int col = (int) e.getX() / (int) columnWidth; // integer division tells us which column was clicked on
-			c4Game.moveHuman(col);
+			c4Game.submit(() -> c4Game.moveHuman(col));
 		});
 		canvas.setOnMouseMoved(e -> {
+			if (board == null) return;
 			isMouseHovering = true;
 			double width = canvas.getWidth();
 			double columnWidth = width / board.numCols();
@@ -528,6 +631,7 @@ public class Connect4 extends Application
 			drawBoard();
 		});
 		canvas.setOnMouseExited(e -> {
+			if (board == null) return;
 			isMouseHovering = false;
 			drawBoard();
 		});
@@ -545,74 +649,91 @@ public class Connect4 extends Application
 
 		// Parse command line arguments to create the game object
 		c4Game = parseArgs();
-		c4Game.newMatch();
-		board = c4Game.getBoard();
+		c4Game.start();
 
 	}
 
-	public void updateMaxTime(int maxTime) {
-		maxMoveTimeSpinner.getValueFactory().setValue(maxTime);
-	}
+	// Latest snapshot published by the game that has not been applied yet.
+	// The game may publish from any thread and much faster than we can
+	// draw; only one apply is ever queued, and it picks up whichever
+	// snapshot is newest when it runs.
+	private final AtomicReference<UIState> pendingState = new AtomicReference<UIState>();
 
-	public void updateTurn(int player) {
-		if (player == 1) {
-			turnLabel.setGraphic(p1Circle);
-		}
-		else {
-			turnLabel.setGraphic(p2Circle);
-		}
-	}
+	// Set while applyState() updates the controls. A snapshot may be older
+	// than a change the user just made, so echoing its values back to the
+	// game would undo that change (and start yet another match).
+	private boolean applyingState;
 
-	public void updateMove(int move) {
-		moveLabel.setText("" + move);
-	}
-
-	public void updateNames(String p1Name, String p2Name) {
-		p1Label.setText(p1Name);
-		p2Label.setText(p2Name);
-	}
-
-	public void updateScore(int p1GamesWon, int p2GamesWon, int p1Points, int p2Points) {
-		p1GamesLabel.setText("" + p1GamesWon);
-		p2GamesLabel.setText("" + p2GamesWon);
-		p1ScoreLabel.setText("" + p1Points);
-		p2ScoreLabel.setText("" + p2Points);
+	public void publish(UIState state) {
+		if (pendingState.getAndSet(state) == null) {
+			Platform.runLater(() -> applyState(pendingState.getAndSet(null)));
+		}
 	}
 
-	public void updateStatus(String status) {
-		statusLabel.setText((c4Game.isPaused() ? "[paused] " : "") + status);
+	private void applyState(UIState s) {
+		if (s == null) return;
+		applyingState = true;
+		try {
+			maxMoveTimeSpinner.getValueFactory().setValue(s.maxMoveTime);
+		}
+		finally {
+			applyingState = false;
+		}
+		gameLabel.setText("" + s.gameNum);
+		turnLabel.setGraphic((s.whoseTurn == 1) ? p1Circle : p2Circle);
+		moveLabel.setText("" + s.moveNum);
+		p1Label.setText(s.p1Name);
+		p2Label.setText(s.p2Name);
+		p1GamesLabel.setText("" + s.p1GamesWon);
+		p2GamesLabel.setText("" + s.p2GamesWon);
+		p1ScoreLabel.setText("" + s.p1Points);
+		p2ScoreLabel.setText("" + s.p2Points);
+		statusLabel.setText((s.paused ? "[paused] " : "") + s.status);
+		this.board = s.board;
+		drawBoard();
 	}
 
-	public void updateGame(int gameNum, int numGames, int numSeedMoves, boolean matchPlay) {
-				gameLabel.setText(""+gameNum);
-		//		numGamesSpinner.getValueFactory().setValue(numGames);
-		//		numSeedMovesSpinner.getValueFactory().setValue(numSeedMoves);
-		//		matchPlayCheckBox.setSelected(matchPlay);
-	}
+	// Draw the board incrementally. We remember what is currently drawn in
+	// each cell and only repaint the cells whose contents changed, which
+	// after a move is the cell that was just filled plus whatever cells
+	// the hover highlight moved off of and on to. The whole canvas is only
+	// repainted when the board size changes.
+	private void drawBoard()
+	{
+		int rows = board.numRows();
+		int cols = board.numCols();
+		if (drawnCells == null || drawnCells.length != rows * cols
+				|| drawnCols != cols) {
+			drawGrid(rows, cols);
+		}
 
-	public void updateBoard(Connect4Board board) {
-		this.board = board;
-		drawBoard();
+		for (int x = 0; x < cols; x++) {
+			boolean hover = isMouseHovering && x == mouseHoveringCol;
+			for (int y = 0; y < rows; y++) {
+				int sprite = board.get(y, x);
+				if (sprite == 0 && hover) sprite = SPRITE_HOVER;
+				if (drawnCells[y * cols + x] != sprite) {
+					drawCell(y, x, sprite);
+				}
+			}
+		}
 	}
 
-	private void drawBoard()
+	// Repaint the background and grid lines, and render the piece sprites
+	// for the current cell size.
+	private void drawGrid(int rows, int cols)
 	{
 		GraphicsContext gc = canvas.getGraphicsContext2D();
 
 		double width = canvas.getWidth();
 		double height = canvas.getHeight();
+		double rowHeight = height / rows;
+		double colWidth = width / cols;
 
 		// Clear the drawing
 		gc.setFill(Color.GREY);
 		gc.fillRect(0, 0, width, height);
 
-		int numCells = board.numCells();
-		int rows = board.numRows();
-		double rowHeight = height / rows;
-
-		int cols = board.numCols();
-		double colWidth = width / cols;
-
 		gc.setStroke(Color.BLACK);
 		for (int x = 0; x < cols; x++) {
 			gc.strokeLine(x * colWidth, 0, x*colWidth, height);
@@ -622,80 +743,102 @@ public class Connect4 extends Application
 			gc.strokeLine(0, y*rowHeight, width, y*rowHeight);
 		}
 
-		gc.setFill(Color.BLACK);
 		double cellDiameter = Math.min(rowHeight, colWidth);
 		cellDiameter *= .75; //give some padding
-		// draw from bottom up, left to right
-		gc.save();
-		gc.translate(0, height);
-		gc.scale(1, -1);
-		for (int x = 0; x < cols; x++) {
-			for (int y = 0; y < rows; y++) {
+		Color[] colors = { Color.BLACK, Color.RED, Color.BLUE, Color.DARKGREY };
+		sprites = new Image[colors.length];
+		int size = (int) Math.ceil(cellDiameter);
+		for (int i = 0; i < colors.length; i++) {
+			Canvas c = new Canvas(size, size);
+			GraphicsContext sgc = c.getGraphicsContext2D();
+			sgc.setFill(colors[i]);
+			sgc.fillOval(0, 0, cellDiameter, cellDiameter);
+			SnapshotParameters params = new SnapshotParameters();
+			params.setFill(Color.TRANSPARENT);
+			sprites[i] = c.snapshot(params, null);
+		}
 
-				switch(board.get(y, x))
-				{
-				case 0: 
-					if (isMouseHovering && x == mouseHoveringCol) gc.setFill(Color.DARKGREY);
-					else gc.setFill(Color.BLACK);
-				break;
-				case 1: gc.setFill(Color.RED);
-				break;
-				case 2: gc.setFill(Color.BLUE);
-				}
+		drawnCells = new int[rows * cols];
+		java.util.Arrays.fill(drawnCells, -1);
+		drawnCols = cols;
+	}
+
+	// Repaint a single cell (row 0 is the bottom row) with the given sprite.
+	private void drawCell(int row, int col, int sprite)
+	{
+		GraphicsContext gc = canvas.getGraphicsContext2D();
 
-				double centerX = x*colWidth + colWidth/2;
-				double centerY = y*rowHeight + rowHeight/2;
+		double rowHeight = canvas.getHeight() / board.numRows();
+		double colWidth = canvas.getWidth() / board.numCols();
+		double left = col * colWidth;
+		double top = canvas.getHeight() - (row + 1) * rowHeight;
 
-				gc.fillOval(centerX - cellDiameter/2, centerY - cellDiameter/2, cellDiameter, cellDiameter);
-			}
-		}
-		gc.restore();
+		gc.setFill(Color.GREY);
+		gc.fillRect(left + 1, top + 1, colWidth - 2, rowHeight - 2);
+
+		Image img = sprites[sprite];
+		gc.drawImage(img, left + (colWidth - img.getWidth()) / 2,
+				top + (rowHeight - img.getHeight()) / 2);
+		drawnCells[row * board.numCols() + col] = sprite;
 	}
 
+	// Show a message without blocking anyone. There is a single non-modal
+	// announcement window that is reused, so messages that arrive while it
+	// is open simply replace its text instead of piling up.
 	public void showMessageDialog(String msg) {
-		Alert a = new Alert(AlertType.INFORMATION);
-		a.setContentText(msg);
-		a.setHeaderText(null);
-//		a.show();
-		a.showAndWait();
+		if (!Platform.isFxApplicationThread()) {
+			Platform.runLater(() -> showMessageDialog(msg));
+			return;
+		}
+		if (announcement == null) {
+			announcement = new Alert(AlertType.INFORMATION);
+			announcement.initModality(Modality.NONE);
+			announcement.setHeaderText(null);
+		}
+		announcement.setContentText(msg);
+		if (!announcement.isShowing()) announcement.show();
 	}
 
-	public void pressStepButton(Connect4Game connect4Game, int epoch) {
-//		stepButton.fire();
-		// Can't just do fire as the fires just queue up events that could happen any time so it won't draw it in progress
-		// instead need to make sure we actually do a step and draw rather than just say ok, queue up an event
-		
-		ActionListener task = new ActionListener() {
-			public void actionPerformed(ActionEvent evt)
-			{
-				if (epoch != c4Game.epoch) return;
-				Platform.runLater(() -> {
-					stepButton.fire();
-				});
-//				c4Game.step();
-			}
-		};
-		int delay = (int) (speedSlider.getValue() * 500);
-		javax.swing.Timer t = new javax.swing.Timer(delay, task); // change 100 to 0 to speed things up (or increase to slow down)
-		t.setRepeats(false);
-		t.start();
+	// Minimum time between auto-play moves, in msec.
+	public int getStepDelay() {
+		return stepDelay;
+	}
+
+	// Add a line to the results panel, dropping the oldest lines once it
+	// gets long.
+	private void logResult(String msg) {
+		List<String> items = resultsList.getItems();
+		if (items.size() == MAX_RESULTS) items.remove(0);
+		items.add(msg);
+		resultsList.scrollTo(items.size() - 1);
 	}
 
+	// Every game result goes to the results panel. A pop-up is only shown
+	// when "Announce Game Winner" is checked, and it never stops the match.
 	public void announceGameWinner(String name, int gameNum, int numGames) {
+		if (!Platform.isFxApplicationThread()) {
+			Platform.runLater(() -> announceGameWinner(name, gameNum, numGames));
+			return;
+		}
+		String msg;
+		if (name == null) {
+			msg = "Game " + gameNum + " of " + numGames + " is a draw.";
+		}
+		else {
+			msg = name + " wins game " + gameNum + " of " + numGames + ".";
+		}
+		logResult(msg);
 		if (announceWinnerCheckBox.isSelected()) {
-			String msg;
-			if (name == null) {
-				msg = "Game " + gameNum + " of " + numGames + " is a draw.";
-			}
-			else {
-				msg = name + " wins game " + gameNum + " of " + numGames + ".";
-			}
 			c4Game.status(msg);
 			showMessageDialog(msg);
 		}
 	}
 
 	public void announceMatchWinner(String name, int nwon, int nlost) {
+		if (!Platform.isFxApplicationThread()) {
+			Platform.runLater(() -> announceMatchWinner(name, nwon, nlost));
+			return;
+		}
 		String msg;
 		if (nwon == nlost) {
 			msg = "The match is a draw: " + nwon + " games each.";
@@ -703,6 +846,7 @@ public class Connect4 extends Application
 		else {
 			msg = name + " wins the match " + nwon + " games to " + nlost + ".";
 		}
+		logResult(msg);
 		c4Game.status(msg);
 		showMessageDialog(msg);
 	}
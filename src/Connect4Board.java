@@ -12,6 +12,34 @@ public class Connect4Board
     private int totalCount;
     private int[] colCounts;
 
+    // Zobrist hash of the position, kept up to date by set(). Each
+    // (cell, player) pair has a fixed random key, and the hash is the xor
+    // of the keys of all occupied cells. mirrorHash is the hash of the
+    // same position flipped left to right, kept up to date alongside.
+    private long hash;
+    private long mirrorHash;
+    private long[] zobrist;
+    private static long[] zobristKeys = new long[0];
+
+    // For reverse(): entry col*(rows+1)+h is the xor of both keys of the
+    // bottom h cells of column col, the change in hash when those cells
+    // swap owners. Built on the first reverse() and shared with copies.
+    private long[] swapKeys;
+
+    // Bitboards of each player's pieces, indexed by id, laid out as in
+    // encode(): bit col*(rows+1)+row. bits[0] soaks up the updates for
+    // empty cells, so set() needs no branch, and means nothing. Only
+    // kept for boards that fit in a long, null otherwise.
+    private long[] bits;
+
+    // Optional running count of each player's lines (indexed by id, as
+    // bits), kept up to date by set() when trackLines() has turned it
+    // on: a piece placed adds the lines through its cell that it
+    // completes, and a piece taken away takes off the ones it broke.
+    // lines is null when off.
+    private LineTable lines;
+    private int[] lineCounts;
+
     /**
      * Creates a new connect 4 board of the default size (6 rows and 7 columns)
      */
@@ -30,6 +58,21 @@ public class Connect4Board
         this.cells = new int [rows*cols];
         this.totalCount = 0;
         this.colCounts = new int [cols];
+        this.zobrist = zobristKeys(rows*cols);
+        this.bits = fitsInLong(rows,cols) ? new long [3] : null;
+    }
+
+    // The same keys are shared by every board, so equal positions hash
+    // equally; the table is grown whenever a bigger board comes along.
+    private static synchronized long[] zobristKeys (int cells) {
+        if (zobristKeys.length < 2*cells) {
+            java.util.SplittableRandom rand =
+                new java.util.SplittableRandom(0x5eedc0ffee4c4L);
+            long[] keys = new long [2*cells];
+            for (int i=0; i<keys.length; i++) keys[i] = rand.nextLong();
+            zobristKeys = keys;
+        }
+        return zobristKeys;
     }
 
     /**
@@ -41,6 +84,255 @@ public class Connect4Board
         System.arraycopy(that.cells,0,this.cells,0,rows*cols);
         System.arraycopy(that.colCounts,0,this.colCounts,0,cols);
         this.totalCount = that.totalCount;
+        this.hash = that.hash;
+        this.mirrorHash = that.mirrorHash;
+        this.swapKeys = that.swapKeys;
+        if (bits != null) System.arraycopy(that.bits,0,this.bits,0,3);
+        if (that.lines != null) {
+            this.lines = that.lines;
+            this.lineCounts = that.lineCounts.clone();
+        }
+    }
+
+    /**
+     * Make this board a copy of another one of the same size, reusing
+     * this board's storage instead of allocating a new board.
+     * @param that The board to copy
+     * @throws IllegalArgumentException If the boards differ in size
+     */
+    public void copyFrom (Connect4Board that) {
+        if (that.rows != rows || that.cols != cols) {
+            throw new IllegalArgumentException(
+                "size mismatch: " + that.rows + "x" + that.cols
+                + " into " + rows + "x" + cols);
+        }
+        System.arraycopy(that.cells,0,this.cells,0,rows*cols);
+        System.arraycopy(that.colCounts,0,this.colCounts,0,cols);
+        this.totalCount = that.totalCount;
+        this.hash = that.hash;
+        this.mirrorHash = that.mirrorHash;
+        if (bits != null) System.arraycopy(that.bits,0,this.bits,0,3);
+        if (lines != null) {
+            if (that.lines == lines) {
+                System.arraycopy(that.lineCounts,0,this.lineCounts,0,3);
+            } else {
+                recountLines();
+            }
+        }
+    }
+
+    /**
+     * Keep a running count of each player's lines of winLength pieces in
+     * a row, for lineCount(). Every move and unmove then also checks the
+     * lines through the cell it changes, which costs a little on each
+     * move but saves counting all the lines of the board whenever the
+     * score is needed. The setting is kept by copies of the board. Off
+     * by default.
+     * @param winLength The number of pieces in a row that make a line,
+     *        or 0 to stop counting
+     */
+    public void trackLines (int winLength) {
+        if (winLength == 0) {
+            lines = null;
+            lineCounts = null;
+            return;
+        }
+        lines = LineTable.get(rows,cols,winLength);
+        lineCounts = new int [3];
+        recountLines();
+    }
+
+    /**
+     * Get the line length trackLines() was given.
+     * @return The length of the lines counted, or 0 if lines are not
+     *         being counted
+     */
+    public int trackedLineLength () {
+        return (lines == null) ? 0 : lines.winLength();
+    }
+
+    /**
+     * Get the number of lines a player has, as counted since
+     * trackLines() was called.
+     * @param id The player
+     * @return The number of lines of trackedLineLength() pieces
+     */
+    public int lineCount (int id) {
+        return lineCounts[id];
+    }
+
+    private void recountLines () {
+        lineCounts[1] = lines.countLines(this,1);
+        lineCounts[2] = lines.countLines(this,2);
+    }
+
+    /**
+     * Rebuild a board from the code returned by encode().
+     * @param rows Number of rows
+     * @param cols Number of columns
+     * @param code The encoded position
+     */
+    public Connect4Board (int rows, int cols, long code) {
+        this(rows,cols);
+        if (!fitsInLong(rows,cols)) {
+            throw new IllegalArgumentException(
+                rows + "x" + cols + " board does not fit in a long");
+        }
+        for (int c=0; c<cols; c++) {
+            long column = (code >>> (c*(rows+1))) & ((1L << (rows+1)) - 1);
+            int height = 63 - Long.numberOfLeadingZeros(column);
+            if (height < 0) {
+                throw new IllegalArgumentException("bad code: col="+c);
+            }
+            for (int r=0; r<height; r++) {
+                move(c, ((column >>> r) & 1) != 0 ? 1 : 2);
+            }
+        }
+    }
+
+    /**
+     * Rebuild a board from the bytes returned by toBytes().
+     * @param rows Number of rows
+     * @param cols Number of columns
+     * @param packed The packed cells
+     */
+    public Connect4Board (int rows, int cols, byte[] packed) {
+        this(rows,cols);
+        if (packed.length != (rows*cols+3)/4) {
+            throw new IllegalArgumentException(
+                "bad length: " + packed.length);
+        }
+        for (int c=0; c<cols; c++) {
+            for (int r=0; r<rows; r++) {
+                int cell = r*cols+c;
+                int id = (packed[cell >> 2] >> (2*(cell & 3))) & 3;
+                if (id == 0) continue;
+                if (r != colCounts[c] || id > 2) {
+                    throw new IllegalArgumentException(
+                        "bad cell: row=" + r + " col=" + c);
+                }
+                move(c,id);
+            }
+        }
+    }
+
+    /**
+     * Check whether boards of a given size can be encoded in a long.
+     * That takes rows+1 bits per column, so 7x7, 6x9 and 8x7 fit, for
+     * instance, but 7x9 does not.
+     * @param rows Number of rows
+     * @param cols Number of columns
+     * @return True if encode() works for such boards
+     */
+    public static boolean fitsInLong (int rows, int cols) {
+        return cols*(rows+1) <= 64;
+    }
+
+    /**
+     * Encode the position in a long, using the usual bitboard trick:
+     * each column takes rows+1 bits, starting from the bottom, and the
+     * code is (player #1's pieces) + (all pieces) + (bottom row). In
+     * each column that leaves a 1 just above the top piece and, below
+     * it, a 1 for every piece of player #1 and a 0 for every piece of
+     * player #2. Equal positions have equal codes and vice versa.
+     * @return The code of the position
+     * @throws IllegalStateException If fitsInLong() is false for the board
+     */
+    public long encode() {
+        if (!fitsInLong(rows,cols)) {
+            throw new IllegalStateException(
+                rows + "x" + cols + " board does not fit in a long");
+        }
+        long bottom = 0;
+        for (int c=0; c<cols; c++) bottom |= 1L << (c*(rows+1));
+        return bits[1] + (bits[1] | bits[2]) + bottom;
+    }
+
+    /**
+     * Check whether bitboard() is available for this board, which it is
+     * whenever the board fits in a long.
+     * @return True if the board keeps bitboards
+     */
+    public boolean hasBitboards() {
+        return bits != null;
+    }
+
+    /**
+     * Get the bitboard of one player's pieces: bit col*(rows+1)+row is
+     * set for each of them. The top bit of each column is always clear,
+     * so shifting a bitboard never carries a piece into the next column.
+     * @param id The player
+     * @return The player's pieces
+     * @throws IllegalStateException If hasBitboards() is false
+     */
+    public long bitboard (int id) {
+        if (bits == null) {
+            throw new IllegalStateException(
+                rows + "x" + cols + " board does not fit in a long");
+        }
+        return bits[id];
+    }
+
+    /**
+     * Encode the position as bytes, for boards too large for encode():
+     * two bits per cell (the cell's value), four cells per byte, in the
+     * order of rows from the bottom up.
+     * @return The packed cells
+     */
+    public byte[] toBytes() {
+        byte[] packed = new byte [(rows*cols+3)/4];
+        for (int cell=0; cell<cells.length; cell++) {
+            packed[cell >> 2] |= cells[cell] << (2*(cell & 3));
+        }
+        return packed;
+    }
+
+    /**
+     * Get a 64-bit hash of the position, suitable for transposition
+     * tables. Positions that are equal always have equal hashes; the
+     * hash is updated incrementally by every move and unmove.
+     * @return The hash of the position
+     */
+    public long hash() {
+        return hash;
+    }
+
+    /**
+     * Get the hash of the position mirrored left to right, i.e. with
+     * column c moved to column numCols()-1-c.
+     * @return The hash of the mirrored position
+     */
+    public long mirrorHash() {
+        return mirrorHash;
+    }
+
+    /**
+     * Get a hash that is the same for a position and its mirror image,
+     * so caches can store the two under one entry. Anything stored
+     * that refers to a column (such as a best move) must be converted
+     * with canonicalCol() on the way in and on the way out.
+     * @return The smaller of hash() and mirrorHash()
+     */
+    public long canonicalHash() {
+        return Math.min(hash,mirrorHash);
+    }
+
+    /**
+     * Check whether canonicalHash() is the hash of the mirrored position.
+     * @return True if the canonical form is the mirror image
+     */
+    public boolean isMirrored() {
+        return mirrorHash < hash;
+    }
+
+    /**
+     * Convert a column between this position and its canonical form.
+     * Mirroring is its own inverse, so the same call works both ways.
+     * @param col A column, or -1
+     * @return The corresponding column, or -1 if col was -1
+     */
+    public int canonicalCol(int col) {
+        return (col < 0 || !isMirrored()) ? col : cols-1-col;
     }
 
     /**
@@ -151,19 +443,77 @@ public class Connect4Board
             throw new IndexOutOfBoundsException(
                 "row=" + row + " col=" + col);
         }
-        cells[row*cols+col] = id;
+        setFast(row,col,id);
+    }
+
+    // set() without the checks, for callers that have already made sure
+    // the cell and the id are valid.
+    private void setFast (int row, int col, int id) {
+        int cell = row*cols+col;
+        int old = cells[cell];
+        int mirror = row*cols+cols-1-col;
+        if (old != 0) {
+            hash ^= zobrist[2*cell+old-1];
+            mirrorHash ^= zobrist[2*mirror+old-1];
+            if (lines != null) {
+                lineCounts[old] -= lines.countLinesThrough(this,cell,old);
+            }
+        }
+        if (id != 0) {
+            hash ^= zobrist[2*cell+id-1];
+            mirrorHash ^= zobrist[2*mirror+id-1];
+        }
+        if (bits != null) {
+            long bit = 1L << (col*(rows+1)+row);
+            bits[old] &= ~bit;
+            bits[id] |= bit;
+        }
+        cells[cell] = id;
+        if (lines != null && id != 0) {
+            lineCounts[id] += lines.countLinesThrough(this,cell,id);
+        }
     }
 
     /**
      * Reverse the state of a board, i.e., change all player#1 pieces to player#2, and vice versa.
      */
     public void reverse() {
-        for (int r=0; r<rows; r++) {
-            for (int c=0; c<cols; c++) {
-                int v = get(r,c);
-                if (v!=0) set(r,c,3-v);
+        // Swap 1 and 2 (leaving 0 alone) with bit twiddling rather than a
+        // branch per cell.
+        for (int i=0; i<cells.length; i++) {
+            int v = cells[i];
+            cells[i] = ((v << 1) | (v >> 1)) & 3;
+        }
+        // The occupied cells of a column are its bottom colCounts[c], so
+        // the hashes change by one table entry per column.
+        if (swapKeys == null) swapKeys = swapKeys();
+        for (int c=0; c<cols; c++) {
+            int h = colCounts[c];
+            hash ^= swapKeys[c*(rows+1)+h];
+            mirrorHash ^= swapKeys[(cols-1-c)*(rows+1)+h];
+        }
+        if (bits != null) {
+            long t = bits[1];
+            bits[1] = bits[2];
+            bits[2] = t;
+        }
+        if (lines != null) {
+            int t = lineCounts[1];
+            lineCounts[1] = lineCounts[2];
+            lineCounts[2] = t;
+        }
+    }
+
+    private long[] swapKeys () {
+        long[] keys = new long [cols*(rows+1)];
+        for (int c=0; c<cols; c++) {
+            for (int r=0; r<rows; r++) {
+                int cell = r*cols+c;
+                keys[c*(rows+1)+r+1] = keys[c*(rows+1)+r]
+                    ^ zobrist[2*cell] ^ zobrist[2*cell+1];
             }
         }
+        return keys;
     }
 
     /**
@@ -213,6 +563,69 @@ public class Connect4Board
         return colCounts[col];
     }
     
+    // The methods below are a fast path for engines that call them in
+    // their inner loops. They skip all argument checking, so passing a
+    // bad cell, column or id either throws an unhelpful exception or
+    // quietly corrupts the board. Players that are not sure of their
+    // arguments should stick to the checked methods above.
+
+    /**
+     * Get the status of a cell by its index, without bounds checking.
+     * @param index The cell's index, row*numCols()+col
+     * @return 0, 1 or 2, as for get()
+     */
+    public int getFast (int index) {
+        return cells[index];
+    }
+
+    /**
+     * Get the height of a column, i.e. the row where the next piece in
+     * it will land. The same as numOccupiedCells(col), for symmetry.
+     * @param col The column
+     * @return The number of pieces in column col
+     */
+    public int height (int col) {
+        return colCounts[col];
+    }
+
+    /**
+     * Get the piece at the top of a column, without bounds checking.
+     * @param col The column
+     * @return 0 if the column is empty, else the id of its top piece
+     */
+    public int topCell (int col) {
+        int h = colCounts[col];
+        return (h == 0) ? 0 : cells[(h-1)*cols+col];
+    }
+
+    /**
+     * Perform a move without checking it. The caller must know that
+     * the column is not full and that id is 1 or 2.
+     * @param col The column of the move
+     * @param id The player making the move
+     * @return The row the piece landed in
+     */
+    public int moveFast (int col, int id) {
+        int row = colCounts[col]++;
+        setFast(row,col,id);
+        totalCount++;
+        return row;
+    }
+
+    /**
+     * Undo a move without checking it. The caller must know that the
+     * column is not empty.
+     * @param col The column of the move to undo
+     * @return The id of the player whose piece was removed
+     */
+    public int unmoveFast (int col) {
+        int row = --colCounts[col];
+        int id = cells[row*cols+col];
+        setFast(row,col,0);
+        totalCount--;
+        return id;
+    }
+
     /**
      * Get a String representation of the board. May be useful for debugging.
      */
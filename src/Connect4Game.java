@@ -1,4 +1,7 @@
 import java.io.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Logic that runs the game. Needs a bunch of refactoring, but it works for now.
@@ -10,9 +13,13 @@ public class Connect4Game
 {
 	private final String defaultPlayer = "HumanPlayer";
 
-	// The top-level GUI object.
+	// The top-level GUI object, or null for a headless game driven with
+	// playMatch().
 	private final Connect4 gui;
 
+	// Whether to keep status messages off stderr.
+	private boolean quiet;
+
 	// State that is transient durina a game.
 	private final int STATE_PAUSED = 1;
 	private final int STATE_PLAYING = 2;
@@ -22,12 +29,14 @@ public class Connect4Game
 	private int gameNum;
 	private int moveNum;
 	private int whoseTurn;
+	private volatile String statusText = "";
 
 	// State that is permanent throughout a game but transient
 	// during a match.
 	private Connect4Board startingBoard;
 	private Connect4Board board;
 	private Player p1, p2;
+	private boolean playersDisposed = true;
 	private String p1HumanName, p2HumanName;
 	private String p1ClassFileName, p2ClassFileName;
 
@@ -37,13 +46,50 @@ public class Connect4Game
 	private int numSeedMoves;
 	private int rows, cols;
 	private int msecPerMove;
+
+	// How many pieces in a row make a line, and the rules of the current
+	// game, which are set up from game and winLength when it starts.
+	private int winLength = 4;
+	private GameRules rules;
+
+	// Engine parameters for each player, indexed by id; null means
+	// EngineConfig.global().
+	private final EngineConfig[] configs = new EngineConfig[3];
+
+	// Optional chess-clock time control: each player gets msecPerGame for
+	// the whole game plus msecIncrement after every move, and loses when
+	// their clock runs out. With msecPerGame == 0, every move simply gets
+	// msecPerMove (plus some grace).
+	private int msecPerGame;
+	private int msecIncrement;
+	private final int[] clock = new int[3];
+
+	// The board each player thinks on, copied from the real board before
+	// each of its moves; see calcMove().
+	private final Connect4Board[] playerBoards = new Connect4Board[3];
+
 	private String game;
 	private int p1GamesWon, p2GamesWon;
 	private int p1Points, p2Points;
 
-	// Maintain an epoch counter that is bumped whenever a new match
-	// starts. This is helpful for UI control.
-	public int epoch;
+	// Every match runs off a single seed. Each game derives its own
+	// generator from the seed and the game number, and splits it into
+	// independent streams for the seed moves and for each player, so any
+	// game of a match can be replayed on its own. Unless a seed is fixed
+	// with setSeed(), a fresh one is drawn (and reported) for each match.
+	private long seed;
+	private boolean fixedSeed;
+
+	// Optional record of every finished game, for GameDatabase. The seed
+	// moves of the current starting board are kept so that the full move
+	// sequence of each game can be written out.
+	private GameRecorder recorder;
+	private int[] seedIds, seedCols;
+	private int[] moveIds, moveCols;
+	private int numMoves;
+
+	// Commands from the GUI, waiting for the game loop thread to run them.
+	private final BlockingQueue<Runnable> commands = new LinkedBlockingQueue<Runnable>();
 
 	public Connect4Game(int rows, int cols, String game, int msecPerMove,
 			int numGames, int numRandMoves, boolean matchPlay,
@@ -58,8 +104,7 @@ public class Connect4Game
 		assert (cols >= 4);
 		assert (numGames > 0);
 		assert (msecPerMove >= 0);
-		assert (game.equals("first") || game.equals("most"));
-		assert (gui != null);
+		assert (GameRules.forName(game, 4) != null);
 
 		this.rows = rows;
 		this.cols = cols;
@@ -71,7 +116,8 @@ public class Connect4Game
 
 		this.matchPlay = matchPlay;
 		this.numSeedMoves = numRandMoves;
-		this.startingBoard = newBoard(numSeedMoves);
+		this.startingBoard = newBoard(numSeedMoves,
+				new java.util.SplittableRandom());
 
 		if (p1ClassFileName == null) {
 			this.p1ClassFileName = defaultPlayer;
@@ -80,8 +126,6 @@ public class Connect4Game
 			this.p2ClassFileName = defaultPlayer;
 		}
 
-		this.epoch = 0;
-		
 		this.gui = gui;
 
 		// Open the GUI.
@@ -107,32 +151,96 @@ public class Connect4Game
 		return msecPerMove;
 	}
 	
+	// Switch to a per-game clock of msecPerGame plus msecIncrement per
+	// move; msecPerGame == 0 goes back to a fixed time per move.
+	public void setTimeControl(int msecPerGame, int msecIncrement)
+	{
+		this.msecPerGame = Math.max(0, msecPerGame);
+		this.msecIncrement = Math.max(0, msecIncrement);
+	}
+
+	// Play connect-K instead of connect-4 from the next match on.
+	public void setWinLength(int winLength)
+	{
+		assert winLength >= 1;
+		this.winLength = winLength;
+	}
+
+	public int getWinLength()
+	{
+		return winLength;
+	}
+
+	// Give player #id these engine parameters from the next game on; null
+	// goes back to EngineConfig.global().
+	public void setConfig(int id, EngineConfig config)
+	{
+		assert id == 1 || id == 2 : id;
+		configs[id] = config;
+	}
+
+	private EngineConfig config(int id)
+	{
+		return (configs[id] != null) ? configs[id] : EngineConfig.global();
+	}
+
+	private boolean hasClock()
+	{
+		return msecPerGame > 0;
+	}
+
 	public Connect4Board getBoard()
 	{
 		return board;
 	}
 
+	// Run every match from the given seed so that it can be reproduced.
+	public void setSeed(long seed)
+	{
+		this.seed = seed;
+		this.fixedSeed = true;
+	}
+
+	public long getSeed()
+	{
+		return seed;
+	}
+
+	// Append every finished game to the given file; null turns recording off.
+	public void setRecordFile(String fileName)
+	{
+		recorder = (fileName == null) ? null : new GameRecorder(fileName);
+	}
+
+	// Publish a snapshot of the game to the GUI. The GUI applies at most
+	// one snapshot per pulse and drops any that were superseded in the
+	// meantime, so this is cheap to call as often as we like.
 	private void updateGUI()
 	{
-		gui.updateMaxTime(msecPerMove);
-		gui.updateGame(gameNum, numGames, numSeedMoves, matchPlay);
-		gui.updateTurn(whoseTurn);
-		gui.updateMove(moveNum);
-		gui.updateNames(p1.name() + " [" + p1.getClass().getName() + "]", p2
-				.name()
-				+ " [" + p2.getClass().getName() + "]");
-		gui.updateBoard(board);
-		gui.updateScore(p1GamesWon, p2GamesWon, p1Points, p2Points);
 		if (state != STATE_MATCHOVER) {
 			status(((whoseTurn == 1) ? p1 : p2).name() + "'s turn"
-					+ " (Player #" + whoseTurn + ")");
-		}
+					+ " (Player #" + whoseTurn + ")"
+					+ (hasClock() ? ", " + clock[whoseTurn] + " ms left" : ""));
+		}
+		if (gui == null) return;
+		gui.publish(new UIState(msecPerMove, gameNum, numGames, moveNum,
+				whoseTurn, p1.name() + " [" + p1.getClass().getName() + "]",
+				p2.name() + " [" + p2.getClass().getName() + "]", p1GamesWon,
+				p2GamesWon, p1Points, p2Points, statusText, isPaused(), board));
 	}
 
+	// Log a status message. It reaches the GUI with the next snapshot.
 	public void status(String status)
 	{
-		System.err.println(status);
-		gui.updateStatus(status);
+		if (!quiet) System.err.println(status);
+		statusText = status;
+	}
+
+	// Stop (or go back to) logging status messages to stderr, e.g. for
+	// many headless games at once.
+	public void setQuiet(boolean quiet)
+	{
+		this.quiet = quiet;
 	}
 
 	public boolean isPaused()
@@ -140,10 +248,28 @@ public class Connect4Game
 		return state == STATE_PAUSED;
 	}
 
-	private Connect4Board newBoard(int nmoves)
+	private java.util.SplittableRandom newGameRandom()
+	{
+		return indexedRandom(seed, gameNum);
+	}
+
+	// The generator for run number k of a series played off one seed.
+	// Seeding with seed + k * gamma would hand run k the stream of run
+	// k - 1 shifted by one draw, so (seed, k) is put through the SplitMix64
+	// finalizer instead, which starts every run somewhere unrelated.
+	static java.util.SplittableRandom indexedRandom(long seed, long k)
+	{
+		long z = seed + (k + 1) * 0x9e3779b97f4a7c15L;
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return new java.util.SplittableRandom(z ^ (z >>> 31));
+	}
+
+	private Connect4Board newBoard(int nmoves, java.util.SplittableRandom rand)
 	{
 		Connect4Board b = new Connect4Board(rows, cols);
-		java.util.Random rand = new java.util.Random();
+		seedIds = new int[nmoves];
+		seedCols = new int[nmoves];
 		for (int i = 0; i < nmoves; i++) {
 			int col = 0;
 			do {
@@ -151,6 +277,8 @@ public class Connect4Game
 			}
 			while (!b.isValidMove(col));
 			b.move(col, 1 + (i % 2));
+			seedIds[i] = 1 + (i % 2);
+			seedCols[i] = col;
 		}
 		return b;
 	}
@@ -159,13 +287,25 @@ public class Connect4Game
 	{
 		// Initialize the board.
 		assert (numSeedMoves % 2) == 0;
+		java.util.SplittableRandom gameRandom = newGameRandom();
+		java.util.SplittableRandom seedRandom = gameRandom.split();
 		if (matchPlay && (gameNum % 2) == 0) {
 			startingBoard.reverse();
+			for (int i = 0; i < seedIds.length; i++) {
+				seedIds[i] = 3 - seedIds[i];
+			}
 		}
 		else {
-			startingBoard = newBoard(numSeedMoves);
+			startingBoard = newBoard(numSeedMoves, seedRandom);
 		}
 		board = new Connect4Board(startingBoard);
+		rules = GameRules.forName(game, winLength);
+		disposePlayers();
+		moveIds = new int[rows * cols];
+		moveCols = new int[rows * cols];
+		numMoves = seedIds.length;
+		System.arraycopy(seedIds, 0, moveIds, 0, numMoves);
+		System.arraycopy(seedCols, 0, moveCols, 0, numMoves);
 		// Initialize the players.
 		{
 			p1 = null;
@@ -177,7 +317,7 @@ public class Connect4Game
 						+ p1ClassFileName + "'.\n" + "Using " + defaultPlayer
 						+ " instead.";
 				status(msg);
-				gui.showMessageDialog(msg);
+				if (gui != null) gui.showMessageDialog(msg);
 			}
 			if (p1 == null) {
 				changeP1(defaultPlayer, null);
@@ -193,7 +333,7 @@ public class Connect4Game
 						+ p2ClassFileName + "'.\n" + "Using " + defaultPlayer
 						+ " instead.";
 				status(msg);
-				gui.showMessageDialog(msg);
+				if (gui != null) gui.showMessageDialog(msg);
 			}
 			if (p2 == null) {
 				changeP2(defaultPlayer, null);
@@ -205,15 +345,51 @@ public class Connect4Game
 		if ((p2 instanceof HumanPlayer) && p2HumanName != null) {
 			((HumanPlayer) p2).setName(p2HumanName);
 		}
+		p1.setWinLength(winLength);
+		p2.setWinLength(winLength);
+		p1.setRules(rules);
+		p2.setRules(rules);
+		p1.setConfig(config(1));
+		p2.setConfig(config(2));
 		p1.init(1, msecPerMove, rows, cols);
 		p2.init(2, msecPerMove, rows, cols);
+		p1.setRandom(gameRandom.split());
+		p2.setRandom(gameRandom.split());
+		playersDisposed = false;
+	}
+
+	// Let the players of the current game release their threads, once the
+	// game is over or before they are replaced.
+	private void disposePlayers()
+	{
+		if (playersDisposed) return;
+		playersDisposed = true;
+		p1.dispose();
+		p2.dispose();
+		reportNodeBudget(p1, 1);
+		reportNodeBudget(p2, 2);
+	}
+
+	// Say so if a player's search outgrew its node budget this game (see
+	// search.nodeBudget), as it then searched part of the time without
+	// its tree.
+	private void reportNodeBudget(Player p, int id)
+	{
+		long refused = p.getRefusedExpansions();
+		if (refused > 0) {
+			status(p.name() + " (Player #" + id + ") ran out of node budget "
+					+ refused + " times this game");
+		}
 	}
 
 	// Reset things for a new match.
 	public void newMatch()
 	{
-		epoch++;
 		state = STATE_PAUSED;
+		if (!fixedSeed) {
+			seed = new java.util.SplittableRandom().nextLong();
+		}
+		status("Match seed: " + seed);
 		newGame(true);
 	}
 
@@ -227,6 +403,7 @@ public class Connect4Game
 		whoseTurn = 2 - (gameNum % 2);
 		// System.err.println("gameNum="+gameNum+" whoseTurn="+whoseTurn);
 		p1Points = p2Points = 0;
+		clock[1] = clock[2] = msecPerGame;
 		if (newMatch) {
 			p1GamesWon = p2GamesWon = 0;
 		}
@@ -307,152 +484,45 @@ public class Connect4Game
 		if (state == STATE_MATCHOVER) return;
 		if (whoseTurn == 1 && !(p1 instanceof HumanPlayer)) return;
 		if (whoseTurn == 2 && !(p2 instanceof HumanPlayer)) return;
-		if (!board.isValidMove(col)) return;
+		if (!rules.isLegalMove(board, col)) return;
 		doMove(col);
-		if (state == STATE_PLAYING) {
-			gui.pressStepButton(this, epoch);
-		}
 		updateGUI();
 	}
 
-	// Return the id (>0) of the winner for normal connect-4 play.
+	// Return the id (>0) of the winner for normal connect-K play.
 	// Return 0 if there is no winner.
 	// Return -1 if there is more than 1 winner.
 	public int calcWinner(Connect4Board board)
 	{
-		final int rows = board.numRows();
-		final int cols = board.numCols();
-		int winner = 0;
-		// Look for horizontal connect-4s.
-		for (int r = 0; r < rows; r++) {
-			for (int c = 0; c <= cols - 4; c++) {
-				int id = board.get(r, c);
-				if (id == 0) continue;
-				if (board.get(r, c + 1) != id) continue;
-				if (board.get(r, c + 2) != id) continue;
-				if (board.get(r, c + 3) != id) continue;
-				if (winner != 0 && winner != id) return -1;
-				winner = id;
-			}
-		}
-		// Look for vertical connect-4s.
-		for (int c = 0; c < cols; c++) {
-			for (int r = 0; r <= rows - 4; r++) {
-				int id = board.get(r, c);
-				if (id == 0) continue;
-				if (board.get(r + 1, c) != id) continue;
-				if (board.get(r + 2, c) != id) continue;
-				if (board.get(r + 3, c) != id) continue;
-				if (winner != 0 && winner != id) return -1;
-				winner = id;
-			}
-		}
-		// Look for diagonal connect-4s.
-		for (int c = 0; c <= cols - 4; c++) {
-			for (int r = 0; r <= rows - 4; r++) {
-				int id = board.get(r, c);
-				if (id == 0) continue;
-				if (board.get(r + 1, c + 1) != id) continue;
-				if (board.get(r + 2, c + 2) != id) continue;
-				if (board.get(r + 3, c + 3) != id) continue;
-				if (winner != 0 && winner != id) return -1;
-				winner = id;
-			}
-		}
-		for (int c = 0; c <= cols - 4; c++) {
-			for (int r = rows - 1; r >= 4 - 1; r--) {
-				int id = board.get(r, c);
-				if (id == 0) continue;
-				if (board.get(r - 1, c + 1) != id) continue;
-				if (board.get(r - 2, c + 2) != id) continue;
-				if (board.get(r - 3, c + 3) != id) continue;
-				if (winner != 0 && winner != id) return -1;
-				winner = id;
-			}
-		}
-		return winner;
+		return FirstConnectRules.winner(board, winLength);
 	}
 
-	// Return the number of connect-4s that player #id has.
+	// Return the number of connect-Ks that player #id has.
 	public int calcScore(Connect4Board board, int id)
 	{
-		final int rows = board.numRows();
-		final int cols = board.numCols();
-		int score = 0;
-		// Look for horizontal connect-4s.
-		for (int r = 0; r < rows; r++) {
-			for (int c = 0; c <= cols - 4; c++) {
-				if (board.get(r, c + 0) != id) continue;
-				if (board.get(r, c + 1) != id) continue;
-				if (board.get(r, c + 2) != id) continue;
-				if (board.get(r, c + 3) != id) continue;
-				score++;
-			}
-		}
-		// Look for vertical connect-4s.
-		for (int c = 0; c < cols; c++) {
-			for (int r = 0; r <= rows - 4; r++) {
-				if (board.get(r + 0, c) != id) continue;
-				if (board.get(r + 1, c) != id) continue;
-				if (board.get(r + 2, c) != id) continue;
-				if (board.get(r + 3, c) != id) continue;
-				score++;
-			}
-		}
-		// Look for diagonal connect-4s.
-		for (int c = 0; c <= cols - 4; c++) {
-			for (int r = 0; r <= rows - 4; r++) {
-				if (board.get(r + 0, c + 0) != id) continue;
-				if (board.get(r + 1, c + 1) != id) continue;
-				if (board.get(r + 2, c + 2) != id) continue;
-				if (board.get(r + 3, c + 3) != id) continue;
-				score++;
-			}
-		}
-		for (int c = 0; c <= cols - 4; c++) {
-			for (int r = rows - 1; r >= 4 - 1; r--) {
-				if (board.get(r - 0, c + 0) != id) continue;
-				if (board.get(r - 1, c + 1) != id) continue;
-				if (board.get(r - 2, c + 2) != id) continue;
-				if (board.get(r - 3, c + 3) != id) continue;
-				score++;
-			}
-		}
-		return score;
+		return BoardEvaluator.countLines(board, id, winLength);
 	}
 
 	private void doMove(int col)
 	{
 		assert state == STATE_PAUSED || state == STATE_PLAYING : state;
-		assert board.isValidMove(col) : "" + board + col;
+		assert rules.isLegalMove(board, col) : "" + board + col;
 		assert whoseTurn == 1 || whoseTurn == 2 : whoseTurn;
 
 		status(((whoseTurn == 1) ? p1 : p2).name() + " (Player #" + whoseTurn
 				+ ")" + " moves to column #" + col);
-		board.move(col, whoseTurn);
+		rules.makeMove(board, col, whoseTurn);
+		moveIds[numMoves] = whoseTurn;
+		moveCols[numMoves] = col;
+		numMoves++;
 
 		// Check for a winner.
-		boolean gameWon = false;
-		if (game.equals("first")) {
-			int winner = calcWinner(board);
-			if (winner > 0 || board.isFull()) {
-				declareWinner(winner);
-				gameWon = true;
-			}
-		}
-		else if (game.equals("most")) {
-			p1Points = calcScore(board, 1);
-			p2Points = calcScore(board, 2);
-			if (board.isFull()) {
-				if (p1Points == p2Points)
-					declareWinner(0);
-				else
-					declareWinner((p1Points > p2Points) ? 1 : 2);
-				gameWon = true;
-			}
-		}
-		else {
-			throw new Error("bug: game=" + game);
+		p1Points = rules.score(board, 1);
+		p2Points = rules.score(board, 2);
+		int result = rules.result(board);
+		boolean gameWon = (result != GameRules.NOT_OVER);
+		if (gameWon) {
+			declareWinner(result);
 		}
 
 		if (!gameWon) {
@@ -484,18 +554,22 @@ public class Connect4Game
 			default:
 				throw new Error("bug: winner=" + id);
 		}
+		recordGame(id);
+		disposePlayers();
 		updateGUI();
-		gui.announceGameWinner(msg, gameNum, numGames);
+		if (gui != null) gui.announceGameWinner(msg, gameNum, numGames);
 
 		if (gameNum == numGames) {
 			state = STATE_MATCHOVER;
-			if (p1GamesWon > p2GamesWon) {
-				gui.announceMatchWinner(p1.name() + " (Player #1)", p1GamesWon,
-						p2GamesWon);
-			}
-			else {
-				gui.announceMatchWinner(p2.name() + " (Player #2)", p2GamesWon,
-						p1GamesWon);
+			if (gui != null) {
+				if (p1GamesWon > p2GamesWon) {
+					gui.announceMatchWinner(p1.name() + " (Player #1)",
+							p1GamesWon, p2GamesWon);
+				}
+				else {
+					gui.announceMatchWinner(p2.name() + " (Player #2)",
+							p2GamesWon, p1GamesWon);
+				}
 			}
 		}
 
@@ -504,6 +578,20 @@ public class Connect4Game
 		}
 	}
 
+	private void recordGame(int winner)
+	{
+		if (recorder == null) return;
+		try {
+			recorder.write(new GameRecord(rows, cols, game, winLength, winner,
+					seedIds.length, moveIds, moveCols, numMoves));
+		}
+		catch (IOException e) {
+			status("Failed to record game to " + recorder.getFile() + ": "
+					+ e.getMessage() + ". Recording turned off.");
+			recorder = null;
+		}
+	}
+
 	public void step()
 	{
 		if (state == STATE_MATCHOVER) return;
@@ -519,7 +607,7 @@ public class Connect4Game
 
 		// Make sure the move is valid. If it is not, then
 		// the other player wins.
-		if (!board.isValidMove(moveCol)) {
+		if (!rules.isLegalMove(board, moveCol)) {
 			status("Player #" + whoseTurn + " (" + players[whoseTurn].name()
 					+ ") made an illegal move in col "+moveCol);
 			int winner = (whoseTurn == 1) ? 2 : 1;
@@ -531,24 +619,101 @@ public class Connect4Game
 		}
 		
 		updateGUI();
-
-		// Do it this way instead of calling step() so that the
-		// user can interact with the UI during play.
-		if (state == STATE_PLAYING) {
-			gui.pressStepButton(this, epoch);
-//			try {
-//				Thread.sleep(100); // slow it down a bit to improve animation
-//			} catch (InterruptedException e) {}
-		}
-
-		updateGUI();
 	}
 
 	public void play()
 	{
 		if (state != STATE_PAUSED) return;
 		state = STATE_PLAYING;
-		gui.pressStepButton(this, epoch);
+	}
+
+	// Start the game loop thread and open the first match.
+	public void start()
+	{
+		Thread t = new Thread(this::runLoop, "Connect4Game loop");
+		t.setDaemon(true);
+		t.start();
+		submit(this::newMatch);
+	}
+
+	// Ask the game loop to run a command, e.g. submit(game::pause). All of
+	// the game state is owned by the loop thread, so the GUI must go
+	// through here rather than call into the game directly. Commands are
+	// run in order, between moves.
+	public void submit(Runnable command)
+	{
+		commands.add(command);
+	}
+
+	// Play a whole match on the calling thread, without a GUI or the game
+	// loop, and return when it is over; see getGamesWon(). Every player
+	// must be an engine, as there is nobody to make a human's moves.
+	public void playMatch()
+	{
+		newMatch();
+		while (state != STATE_MATCHOVER) {
+			if (isHumanTurn()) {
+				throw new IllegalStateException("headless game with a human");
+			}
+			step();
+		}
+	}
+
+	public boolean isMatchOver()
+	{
+		return state == STATE_MATCHOVER;
+	}
+
+	// Games won by player #id so far this match.
+	public int getGamesWon(int id)
+	{
+		assert id == 1 || id == 2 : id;
+		return (id == 1) ? p1GamesWon : p2GamesWon;
+	}
+
+	private boolean isHumanTurn()
+	{
+		return (whoseTurn == 1) ? (p1 instanceof HumanPlayer)
+				: (p2 instanceof HumanPlayer);
+	}
+
+	// The game loop. While auto-playing, it steps the game as fast as the
+	// engines move, handling any commands from the GUI in between moves.
+	// Otherwise it just waits for commands. The only pacing is the GUI's
+	// step delay, which is a minimum time between moves so that fast
+	// engines can still be watched; it is counted from the start of the
+	// previous move, so it overlaps with the engine's thinking time rather
+	// than adding to it.
+	private void runLoop()
+	{
+		long lastMoveTime = 0;
+		while (true) {
+			try {
+				Runnable command;
+				if (state == STATE_PLAYING && !isHumanTurn()) {
+					long wait = lastMoveTime + ((gui == null) ? 0 : gui.getStepDelay())
+							- System.currentTimeMillis();
+					command = (wait > 0)
+							? commands.poll(wait, TimeUnit.MILLISECONDS)
+							: commands.poll();
+					if (command == null) {
+						lastMoveTime = System.currentTimeMillis();
+						step();
+						continue;
+					}
+				}
+				else {
+					command = commands.take();
+				}
+				command.run();
+			}
+			catch (InterruptedException e) {
+			}
+			catch (RuntimeException e) {
+				e.printStackTrace();
+				status("Internal error: " + e);
+			}
+		}
 	}
 
 	// Given the name of a class that implemements the Player interface,
@@ -572,20 +737,34 @@ public class Connect4Game
 	// permitted to spend more than msecAllowed time to do this
 	// calculation. If the player takes too much time, then we
 	// have it make an illegal move (which forfeits the game).
+	// With a clock, msecAllowed is whatever is left on the player's
+	// clock, and running past it forfeits the game as well.
 	private int calcMove(Connect4Board board, Player player, int prevMoveCol,
 			int msecPerMove)
 	{
+		// Let the player think for a while.
+		int msecAllowed = hasClock() ? clock[whoseTurn]
+				: msecPerMove * 120 / 100;
+
 		// Start up the player in a separate thread so we are
 		// protected from its exceptions and infinite loops.
-		Arbitrator arb = new Arbitrator();
-		PlayerThread pt = new PlayerThread(player, board, prevMoveCol, arb);
+		Arbitrator arb = hasClock()
+				? new Arbitrator(msecAllowed, clock[whoseTurn], msecIncrement)
+				: new Arbitrator(msecPerMove, -1, 0);
+		Connect4Board scratch = playerBoards[whoseTurn];
+		if (scratch == null || scratch.numRows() != board.numRows()
+				|| scratch.numCols() != board.numCols())
+		{
+			scratch = new Connect4Board(board.numRows(), board.numCols());
+			playerBoards[whoseTurn] = scratch;
+		}
+		PlayerThread pt = new PlayerThread(player, board, scratch,
+				prevMoveCol, arb);
 		pt.start();
 		long startTime = System.currentTimeMillis();
 		Thread.yield();
 
-		// Let the player think for a while.
-		int msecAllowed = msecPerMove * 120 / 100;
-		int msecPerSpin = msecAllowed / 100;
+		int msecPerSpin = Math.min(msecAllowed / 100, 10);
 		msecPerSpin = Math.max(1, msecPerSpin);
 		while (true) {
 			// If the player is done thinking, then stop spinning.
@@ -599,6 +778,7 @@ public class Connect4Game
 			catch (InterruptedException e) {
 			}
 		}
+		int msecUsed = (int) (System.currentTimeMillis() - startTime);
 
 		// Notify the player thread that time is up. If the player
 		// is already done calculating its next move, then this has
@@ -618,6 +798,21 @@ public class Connect4Game
 			}
 		}
 
+		// A player still running may still be using its board, so don't
+		// hand that board out again.
+		if (pt.isAlive()) playerBoards[whoseTurn] = null;
+
+		if (hasClock()) {
+			clock[whoseTurn] -= msecUsed;
+			if (clock[whoseTurn] < 0) {
+				clock[whoseTurn] = 0;
+				status("Player #" + whoseTurn + " (" + player.name()
+						+ ") ran out of time on the clock.");
+				return -1;
+			}
+			clock[whoseTurn] += msecIncrement;
+		}
+
 		// If the player thread has still not exited, then disqualify it by
 		// returning an invalid move; otherwise, return whatever move it
 		// calculated.
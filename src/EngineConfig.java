@@ -0,0 +1,176 @@
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * Tunable engine parameters, as a set of string keys and values in the
+ * java.util.Properties file format, so that search and evaluation can be
+ * traded off per deployment without recompiling. The game hands each
+ * player a configuration before init() (see Player.setConfig()), and the
+ * players read the keys they know there. Keys that are not set take the
+ * default built into the player, so an empty configuration plays exactly
+ * as the code always did.
+ *
+ * The keys the players read:
+ *
+ *   search.maxDepth     deepest iteration to search, 0 for no limit
+ *                       (AlphaBeta, MiniMax)
+ *   search.ponder       think on the opponent's time, true or false
+ *                       (AlphaBeta)
+ *   search.nodeBudget   most nodes in the search tree, 0 for a tenth of
+ *                       the heap (AlphaBeta, MiniMax, MCTS)
+ *   table.bits          log2 of the transposition table size (AlphaBeta,
+ *                       MiniMax)
+ *   time.safetyMsec     msec kept in hand on every move
+ *   time.safetyShare    share of the move time kept in hand
+ *   time.openingShare, time.middlegameShare, time.endgameShare
+ *                       share of the move time to spend normally, by phase
+ *                       (the time.* keys: every player using TimeManager)
+ *   eval.line           weight of a line of K (AlphaBeta, MiniMax, Greedo)
+ *   eval.threat         weight of a run of K-1 (same)
+ *   eval.center         weight of a piece in the middle column (same)
+ *   mcts.threads        search threads (MCTS)
+ *   mcts.parallelism    "tree" or "root" (MCTS)
+ *
+ * Connect4 fills the configuration from a file given with -config and
+ * from -set key=value options.
+ *
+ * @author Siyang Liu
+ *
+ */
+public class EngineConfig
+{
+	// The configuration players get when the game does not give them one.
+	private static volatile EngineConfig global = new EngineConfig();
+
+	private final Properties props = new Properties();
+
+	public EngineConfig()
+	{
+	}
+
+	/**
+	 * Create a copy of a configuration, e.g. to change a few keys of it.
+	 * @param that The configuration to copy
+	 */
+	public EngineConfig(EngineConfig that)
+	{
+		props.putAll(that.props);
+	}
+
+	/**
+	 * Read a configuration from a properties file.
+	 * @param file The file
+	 * @return The configuration
+	 * @throws IOException If the file can't be read
+	 */
+	public static EngineConfig load(File file)
+		throws IOException
+	{
+		EngineConfig config = new EngineConfig();
+		try (Reader in = new FileReader(file)) {
+			config.props.load(in);
+		}
+		return config;
+	}
+
+	/**
+	 * Write the configuration to a properties file, keys in order.
+	 * @param file The file
+	 * @param comment A line to put at the top, or null
+	 * @throws IOException If the file can't be written
+	 */
+	public void store(File file, String comment)
+		throws IOException
+	{
+		try (Writer out = new FileWriter(file)) {
+			if (comment != null) out.write("# " + comment + "\n");
+			for (String key : new TreeSet<String>(props.stringPropertyNames())) {
+				out.write(key + "=" + props.getProperty(key) + "\n");
+			}
+		}
+	}
+
+	public static EngineConfig global()
+	{
+		return global;
+	}
+
+	public static void setGlobal(EngineConfig config)
+	{
+		global = config;
+	}
+
+	public void set(String key, String value)
+	{
+		props.setProperty(key, value);
+	}
+
+	/**
+	 * Set a key from a "key=value" string, as given on the command line.
+	 * @param setting The setting
+	 * @throws IllegalArgumentException If there is no '='
+	 */
+	public void set(String setting)
+	{
+		int eq = setting.indexOf('=');
+		if (eq <= 0) {
+			throw new IllegalArgumentException("expected key=value: " + setting);
+		}
+		set(setting.substring(0, eq).trim(), setting.substring(eq + 1).trim());
+	}
+
+	public boolean has(String key)
+	{
+		return props.getProperty(key) != null;
+	}
+
+	public String get(String key, String def)
+	{
+		return props.getProperty(key, def);
+	}
+
+	public int getInt(String key, int def)
+	{
+		String value = props.getProperty(key);
+		if (value == null) return def;
+		try {
+			return Integer.parseInt(value.trim());
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException(key + ": not an integer: " + value);
+		}
+	}
+
+	public double getDouble(String key, double def)
+	{
+		String value = props.getProperty(key);
+		if (value == null) return def;
+		try {
+			return Double.parseDouble(value.trim());
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException(key + ": not a number: " + value);
+		}
+	}
+
+	public boolean getBoolean(String key, boolean def)
+	{
+		String value = props.getProperty(key);
+		if (value == null) return def;
+		value = value.trim();
+		if (value.equalsIgnoreCase("true")) return true;
+		if (value.equalsIgnoreCase("false")) return false;
+		throw new IllegalArgumentException(key + ": not true or false: " + value);
+	}
+
+	public String toString()
+	{
+		return new java.util.TreeMap<Object, Object>(props).toString();
+	}
+}
@@ -0,0 +1,57 @@
+/**
+ * Ordinary connect-K: the first player to get K in a row wins, and a full
+ * board without a line is a draw.
+ *
+ * @author Siyang Liu
+ *
+ */
+public class FirstConnectRules implements GameRules
+{
+	private final int winLength;
+
+	public FirstConnectRules(int winLength)
+	{
+		this.winLength = winLength;
+	}
+
+	/**
+	 * Find who has a line of K.
+	 * @param board The position
+	 * @param winLength K
+	 * @return The id of the only player with a line, 0 if nobody has one,
+	 *         or -1 if both players do
+	 */
+	public static int winner(Connect4Board board, int winLength)
+	{
+		if (board.hasBitboards()) {
+			boolean p1Won = BoardEvaluator.countLines(board, 1, winLength) > 0;
+			boolean p2Won = BoardEvaluator.countLines(board, 2, winLength) > 0;
+			if (p1Won && p2Won) return -1;
+			return p1Won ? 1 : (p2Won ? 2 : 0);
+		}
+		return LineTable.get(board.numRows(), board.numCols(), winLength)
+				.winner(board);
+	}
+
+	public String name()
+	{
+		return "first";
+	}
+
+	public int score(Connect4Board board, int id)
+	{
+		return BoardEvaluator.countLines(board, id, winLength);
+	}
+
+	public int result(Connect4Board board)
+	{
+		int winner = winner(board, winLength);
+		if (winner > 0) return winner;
+		return board.isFull() ? 0 : NOT_OVER;
+	}
+
+	public boolean firstLineWins()
+	{
+		return true;
+	}
+}
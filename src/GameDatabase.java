@@ -0,0 +1,470 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only database of recorded games (see GameRecord and GameRecorder).
+ * The record files are memory-mapped rather than read into the heap; the
+ * only things kept on the heap are the offset of each game within its file
+ * and an index from position key to the results of every game in which
+ * that position occurred.
+ *
+ * Positions are indexed per variant, i.e. per board size, game and win
+ * length, so games played by other rules never mix into a position's
+ * statistics. A position and its left-right mirror image are indexed
+ * under one key, so the statistics of a position include games that
+ * reached its mirror.
+ *
+ * Results in the index are always from the point of view of player #1,
+ * i.e. "wins" counts games won by player #1 and "losses" counts games won
+ * by player #2.
+ *
+ * @author Siyang Liu
+ *
+ */
+public class GameDatabase
+{
+	// The mapped record files and, for every game, which file it lives in
+	// and where its line starts.
+	private final MappedByteBuffer[] buffers;
+	private int[] gameFile = new int[1024];
+	private int[] gameOffset = new int[1024];
+	private int numGames;
+
+	// The variants seen so far, as "rows cols game winLength", numbered
+	// in the order they were first seen.
+	private final java.util.List<String> variantNames =
+		new java.util.ArrayList<String>();
+
+	// Open-addressing hash index from variant and position key to four
+	// counters (games, wins, draws, losses) stored side by side in
+	// counts[].
+	private long[] keys = new long[1 << 12];
+	private int[] variants = new int[1 << 12];
+	private int[] counts = new int[4 << 12];
+	private int numPositions;
+
+	// Scratch space for parsing one game at a time.
+	private int[] ids = new int[64];
+	private int[] moveCols = new int[64];
+
+	/**
+	 * The results of all games in which a position occurred.
+	 */
+	public static class Stats
+	{
+		private final int games, wins, draws, losses;
+
+		private Stats(int games, int wins, int draws, int losses)
+		{
+			this.games = games;
+			this.wins = wins;
+			this.draws = draws;
+			this.losses = losses;
+		}
+
+		public int getGames()
+		{
+			return games;
+		}
+
+		// Games won by player #1.
+		public int getWins()
+		{
+			return wins;
+		}
+
+		public int getDraws()
+		{
+			return draws;
+		}
+
+		// Games won by player #2.
+		public int getLosses()
+		{
+			return losses;
+		}
+
+		// Games won by player #id.
+		public int getWinsFor(int id)
+		{
+			return (id == 1) ? wins : losses;
+		}
+
+		public String toString()
+		{
+			return games + " games: +" + wins + " =" + draws + " -" + losses;
+		}
+	}
+
+	private static final Stats NO_GAMES = new Stats(0, 0, 0, 0);
+
+	/**
+	 * Map the given record files and index every position in them.
+	 * @param files Record files written by GameRecorder
+	 * @throws IOException If a file can't be mapped or contains a bad record
+	 */
+	public GameDatabase(File... files)
+		throws IOException
+	{
+		buffers = new MappedByteBuffer[files.length];
+		for (int f = 0; f < files.length; f++) {
+			try (FileChannel ch = new RandomAccessFile(files[f], "r")
+					.getChannel()) {
+				if (ch.size() > Integer.MAX_VALUE) {
+					throw new IOException(files[f] + " is too large to map");
+				}
+				buffers[f] = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+			}
+			indexFile(f);
+		}
+	}
+
+	/**
+	 * Get the number of games in the database
+	 * @return The number of games
+	 */
+	public int numGames()
+	{
+		return numGames;
+	}
+
+	/**
+	 * Get the number of distinct positions in the index
+	 * @return The number of positions
+	 */
+	public int numPositions()
+	{
+		return numPositions;
+	}
+
+	/**
+	 * Read back one game. The game is parsed straight out of the mapped file.
+	 * @param i The index of the game, 0 &lt;= i &lt; numGames()
+	 * @return The recorded game
+	 */
+	public GameRecord game(int i)
+	{
+		if (i < 0 || i >= numGames) {
+			throw new IndexOutOfBoundsException("game=" + i);
+		}
+		MappedByteBuffer buf = buffers[gameFile[i]];
+		int end = gameOffset[i];
+		while (end < buf.limit() && buf.get(end) != '\n') end++;
+		StringBuilder s = new StringBuilder(end - gameOffset[i]);
+		for (int p = gameOffset[i]; p < end; p++) {
+			s.append((char) buf.get(p));
+		}
+		return GameRecord.parse(s);
+	}
+
+	/**
+	 * Look up the results of every game in which a position occurred.
+	 * @param board The position
+	 * @param game The name of the game, as given to GameRules.forName()
+	 * @param winLength The number of pieces in a row that count
+	 * @return The results; never null
+	 */
+	public Stats lookup(Connect4Board board, String game, int winLength)
+	{
+		return lookup(variant(board, game, winLength), positionKey(board));
+	}
+
+	/**
+	 * Look up the position reached by playing a move, without copying the
+	 * board. Handy for picking among the moves of a position.
+	 * @param board The position before the move
+	 * @param game The name of the game, as given to GameRules.forName()
+	 * @param winLength The number of pieces in a row that count
+	 * @param col The column of the move
+	 * @param id The player making the move
+	 * @return The results; never null
+	 */
+	public Stats lookupMove(Connect4Board board, String game, int winLength,
+			int col, int id)
+	{
+		if (!board.isValidMove(col)) {
+			throw new IllegalArgumentException("invalid move: col=" + col);
+		}
+		final int rows = board.numRows();
+		final int cols = board.numCols();
+		final int row = board.numOccupiedCells(col);
+		return lookup(variant(board, game, winLength), Math.min(
+				nextKey(rawKey(board, false), rows, cols, row, col, id),
+				nextKey(rawKey(board, true), rows, cols, row, cols - 1 - col, id)));
+	}
+
+	// The results for a variant number and a key computed by positionKey().
+	private Stats lookup(int variant, long key)
+	{
+		if (variant < 0) return NO_GAMES;
+		int slot = find(variant, key);
+		if (counts[4 * slot] == 0) return NO_GAMES;
+		return new Stats(counts[4 * slot], counts[4 * slot + 1],
+				counts[4 * slot + 2], counts[4 * slot + 3]);
+	}
+
+	// The number of the variant a board is played in, or -1 if no game
+	// of that variant has been recorded.
+	private int variant(Connect4Board board, String game, int winLength)
+	{
+		return variantNames.indexOf(variantName(board.numRows(),
+				board.numCols(), game, winLength));
+	}
+
+	private static String variantName(int rows, int cols, String game,
+			int winLength)
+	{
+		return rows + " " + cols + " " + game + " " + winLength;
+	}
+
+	// Positions that fit in a long (see Connect4Board.encode()) use that
+	// exact encoding. Bigger boards fall back to a 64-bit hash of the
+	// occupied cells.
+	private static boolean fitsInLong(int rows, int cols)
+	{
+		return Connect4Board.fitsInLong(rows, cols);
+	}
+
+	/**
+	 * Compute the key under which a position is indexed. A position and
+	 * its mirror image have the same key.
+	 * @param board The position
+	 * @return The key of the position
+	 */
+	public static long positionKey(Connect4Board board)
+	{
+		return Math.min(rawKey(board, false), rawKey(board, true));
+	}
+
+	// The key of the position, or of its mirror image.
+	private static long rawKey(Connect4Board board, boolean mirrored)
+	{
+		final int rows = board.numRows();
+		final int cols = board.numCols();
+		long key = emptyKey(rows, cols);
+		for (int c = 0; c < cols; c++) {
+			int keyCol = mirrored ? cols - 1 - c : c;
+			for (int r = 0; r < board.numOccupiedCells(c); r++) {
+				key = nextKey(key, rows, cols, r, keyCol, board.get(r, c));
+			}
+		}
+		return key;
+	}
+
+	private static long emptyKey(int rows, int cols)
+	{
+		if (!fitsInLong(rows, cols)) return 0;
+		long bottom = 0;
+		for (int c = 0; c < cols; c++) {
+			bottom |= 1L << (c * (rows + 1));
+		}
+		return bottom;
+	}
+
+	// Update a key for a piece dropped at (row, col). For the bitboard
+	// encoding, key = player1 + all + bottom, so adding a piece adds its
+	// bit once for the mask and once more if it belongs to player #1.
+	private static long nextKey(long key, int rows, int cols, int row,
+			int col, int id)
+	{
+		if (fitsInLong(rows, cols)) {
+			long bit = 1L << (col * (rows + 1) + row);
+			return key + bit + ((id == 1) ? bit : 0);
+		}
+		return key ^ mix(2L * (row * cols + col) + id);
+	}
+
+	private static long mix(long z)
+	{
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return z ^ (z >>> 33);
+	}
+
+	// Return the slot holding the key of a variant, or the empty slot
+	// where it would go.
+	private int find(int variant, long key)
+	{
+		int mask = keys.length - 1;
+		int slot = (int) mix(key + variant * 0x9e3779b97f4a7c15L) & mask;
+		while (counts[4 * slot] != 0
+				&& (keys[slot] != key || variants[slot] != variant)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void add(int variant, long key, int winner)
+	{
+		int slot = find(variant, key);
+		if (counts[4 * slot] == 0) {
+			keys[slot] = key;
+			variants[slot] = variant;
+			numPositions++;
+		}
+		counts[4 * slot]++;
+		counts[4 * slot + ((winner == 1) ? 1 : (winner == 0) ? 2 : 3)]++;
+		if (2 * numPositions > keys.length) grow();
+	}
+
+	private void grow()
+	{
+		long[] oldKeys = keys;
+		int[] oldVariants = variants;
+		int[] oldCounts = counts;
+		keys = new long[2 * oldKeys.length];
+		variants = new int[2 * oldVariants.length];
+		counts = new int[2 * oldCounts.length];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldCounts[4 * i] == 0) continue;
+			int slot = find(oldVariants[i], oldKeys[i]);
+			keys[slot] = oldKeys[i];
+			variants[slot] = oldVariants[i];
+			System.arraycopy(oldCounts, 4 * i, counts, 4 * slot, 4);
+		}
+	}
+
+	// Walk a mapped file one line at a time, remembering where each game
+	// starts and adding each of its positions to the index.
+	private void indexFile(int f)
+		throws IOException
+	{
+		MappedByteBuffer buf = buffers[f];
+		int pos = 0;
+		final int limit = buf.limit();
+		while (pos < limit) {
+			int start = pos;
+			int end = start;
+			while (end < limit && buf.get(end) != '\n') end++;
+			pos = end + 1;
+			int first = skipSpace(buf, start, end);
+			if (first == end || buf.get(first) == '#') continue;
+			try {
+				indexGame(buf, first, end);
+			}
+			catch (RuntimeException e) {
+				throw new IOException("bad game record at byte " + start
+						+ ": " + e.getMessage(), e);
+			}
+			if (numGames == gameFile.length) {
+				gameFile = java.util.Arrays.copyOf(gameFile, 2 * numGames);
+				gameOffset = java.util.Arrays.copyOf(gameOffset, 2 * numGames);
+			}
+			gameFile[numGames] = f;
+			gameOffset[numGames] = first;
+			numGames++;
+		}
+	}
+
+	private void indexGame(MappedByteBuffer buf, int p, int end)
+	{
+		// The header is all numbers but for the game's name (field 2).
+		int[] field = new int[GameRecord.HEADER_FIELDS];
+		String game = null;
+		for (int i = 0; i < field.length; i++) {
+			p = skipSpace(buf, p, end);
+			int q = p;
+			int v = 0;
+			if (i == 2) {
+				StringBuilder s = new StringBuilder();
+				while (q < end && buf.get(q) > ' ') s.append((char) buf.get(q++));
+				game = s.toString();
+			}
+			else {
+				while (q < end && isDigit(buf.get(q))) v = 10 * v + (buf.get(q++) - '0');
+			}
+			if (q == p) throw new IllegalArgumentException("missing header");
+			field[i] = v;
+			p = q;
+		}
+		final int rows = field[0], cols = field[1], winLength = field[3];
+		final int winner = field[4];
+		if (rows < 1 || cols < 1 || winner > 2 || winLength < 1
+				|| GameRules.forName(game, winLength) == null) {
+			throw new IllegalArgumentException("bad header");
+		}
+		String name = variantName(rows, cols, game, winLength);
+		int variant = variantNames.indexOf(name);
+		if (variant < 0) {
+			variant = variantNames.size();
+			variantNames.add(name);
+		}
+		int n = 0;
+		while ((p = skipSpace(buf, p, end)) < end) {
+			int id = buf.get(p++) - '0';
+			int col = 0;
+			int q = p;
+			while (q < end && isDigit(buf.get(q))) col = 10 * col + (buf.get(q++) - '0');
+			if (q == p || id < 1 || id > 2) {
+				throw new IllegalArgumentException("bad move");
+			}
+			p = q;
+			if (n == ids.length) {
+				ids = java.util.Arrays.copyOf(ids, 2 * n);
+				moveCols = java.util.Arrays.copyOf(moveCols, 2 * n);
+			}
+			ids[n] = id;
+			moveCols[n] = col;
+			n++;
+		}
+
+		// Replay the game through a real board so that corrupt records
+		// are caught rather than silently indexed.
+		Connect4Board board = new Connect4Board(rows, cols);
+		long key = emptyKey(rows, cols);
+		long mirrorKey = key;
+		add(variant, key, winner);
+		for (int i = 0; i < n; i++) {
+			int row = board.move(moveCols[i], ids[i]);
+			key = nextKey(key, rows, cols, row, moveCols[i], ids[i]);
+			mirrorKey = nextKey(mirrorKey, rows, cols, row,
+					cols - 1 - moveCols[i], ids[i]);
+			add(variant, Math.min(key, mirrorKey), winner);
+		}
+	}
+
+	private static boolean isDigit(byte b)
+	{
+		return b >= '0' && b <= '9';
+	}
+
+	private static int skipSpace(MappedByteBuffer buf, int p, int end)
+	{
+		while (p < end && (buf.get(p) == ' ' || buf.get(p) == '\t'
+				|| buf.get(p) == '\r')) {
+			p++;
+		}
+		return p;
+	}
+
+	// Print a summary of one or more record files, including the results
+	// of each opening move from the empty board.
+	public static void main(String[] args)
+		throws IOException
+	{
+		if (args.length == 0) {
+			System.err.println("usage: GameDatabase recordFile...");
+			System.exit(1);
+		}
+		File[] files = new File[args.length];
+		for (int i = 0; i < args.length; i++) {
+			files[i] = new File(args[i]);
+		}
+		GameDatabase db = new GameDatabase(files);
+		System.out.println(db.numGames() + " games, " + db.numPositions()
+				+ " distinct positions");
+		if (db.numGames() == 0) return;
+		GameRecord first = db.game(0);
+		Connect4Board empty = new Connect4Board(first.numRows(),
+				first.numCols());
+		String game = first.getGame();
+		int winLength = first.getWinLength();
+		System.out.println("empty board (" + game + ", " + winLength
+				+ " in a row): " + db.lookup(empty, game, winLength));
+		for (int c = 0; c < empty.numCols(); c++) {
+			System.out.println("  player #1 in col " + c + ": "
+					+ db.lookupMove(empty, game, winLength, c, 1));
+		}
+	}
+}
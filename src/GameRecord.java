@@ -0,0 +1,159 @@
+/**
+ * A single recorded game: the board size, the game and win length it was
+ * played under, the full move sequence (seed moves included) and the
+ * result. Records are stored one per line as plain text so they can be
+ * appended to cheaply and read back by GameDatabase without any parsing
+ * library:
+ *
+ * <pre>
+ *   rows cols game winLength winner numSeedMoves move move move ...
+ * </pre>
+ *
+ * where game is a name known to GameRules.forName() ("first" or "most"),
+ * winLength is the number of pieces in a row that count, winner is 0 for
+ * a draw or the id of the winning player, and each
+ * move is the id of the player who moved followed directly by the column,
+ * e.g. "13" is player #1 dropping a piece in column 3 and "210" is player
+ * #2 dropping a piece in column 10. Lines starting with '#' are comments.
+ *
+ * @author Siyang Liu
+ *
+ */
+public class GameRecord
+{
+	// The fields before the moves on a record line.
+	static final int HEADER_FIELDS = 6;
+
+	private final int rows, cols;
+	private final String game;
+	private final int winLength;
+	private final int winner;
+	private final int numSeedMoves;
+	private final int[] ids;
+	private final int[] moveCols;
+
+	public GameRecord(int rows, int cols, String game, int winLength,
+			int winner, int numSeedMoves, int[] ids, int[] moveCols,
+			int numMoves)
+	{
+		if (winLength < 1 || GameRules.forName(game, winLength) == null) {
+			throw new IllegalArgumentException("game=" + game
+					+ " winLength=" + winLength);
+		}
+		if (winner < 0 || winner > 2) {
+			throw new IllegalArgumentException("winner=" + winner);
+		}
+		if (numSeedMoves < 0 || numSeedMoves > numMoves) {
+			throw new IllegalArgumentException("numSeedMoves=" + numSeedMoves);
+		}
+		this.rows = rows;
+		this.cols = cols;
+		this.game = game;
+		this.winLength = winLength;
+		this.winner = winner;
+		this.numSeedMoves = numSeedMoves;
+		this.ids = java.util.Arrays.copyOf(ids, numMoves);
+		this.moveCols = java.util.Arrays.copyOf(moveCols, numMoves);
+	}
+
+	public int numRows()
+	{
+		return rows;
+	}
+
+	public int numCols()
+	{
+		return cols;
+	}
+
+	// The name of the game, as given to GameRules.forName().
+	public String getGame()
+	{
+		return game;
+	}
+
+	public int getWinLength()
+	{
+		return winLength;
+	}
+
+	// 0 for a draw, otherwise the id of the winning player.
+	public int getWinner()
+	{
+		return winner;
+	}
+
+	public int getNumSeedMoves()
+	{
+		return numSeedMoves;
+	}
+
+	public int getNumMoves()
+	{
+		return ids.length;
+	}
+
+	// The id of the player who made move i.
+	public int getId(int i)
+	{
+		return ids[i];
+	}
+
+	// The column of move i.
+	public int getCol(int i)
+	{
+		return moveCols[i];
+	}
+
+	// Rebuild the position after the first n moves of the game.
+	public Connect4Board boardAfter(int n)
+	{
+		Connect4Board b = new Connect4Board(rows, cols);
+		for (int i = 0; i < n; i++) {
+			b.move(moveCols[i], ids[i]);
+		}
+		return b;
+	}
+
+	public String toLine()
+	{
+		StringBuilder s = new StringBuilder(16 + 4 * ids.length);
+		s.append(rows).append(' ').append(cols).append(' ').append(game)
+				.append(' ').append(winLength).append(' ').append(winner)
+				.append(' ').append(numSeedMoves);
+		for (int i = 0; i < ids.length; i++) {
+			s.append(' ').append(ids[i]).append(moveCols[i]);
+		}
+		return s.toString();
+	}
+
+	public String toString()
+	{
+		return toLine();
+	}
+
+	// Parse a record from one line of a record file.
+	public static GameRecord parse(CharSequence line)
+	{
+		String[] tok = line.toString().trim().split("\\s+");
+		if (tok.length < HEADER_FIELDS) {
+			throw new IllegalArgumentException("bad game record: " + line);
+		}
+		int n = tok.length - HEADER_FIELDS;
+		int[] ids = new int[n];
+		int[] moveCols = new int[n];
+		for (int i = 0; i < n; i++) {
+			String m = tok[i + HEADER_FIELDS];
+			if (m.length() < 2) {
+				throw new IllegalArgumentException("bad move '" + m + "' in: "
+						+ line);
+			}
+			ids[i] = m.charAt(0) - '0';
+			moveCols[i] = Integer.parseInt(m.substring(1));
+		}
+		return new GameRecord(Integer.parseInt(tok[0]),
+				Integer.parseInt(tok[1]), tok[2], Integer.parseInt(tok[3]),
+				Integer.parseInt(tok[4]), Integer.parseInt(tok[5]), ids,
+				moveCols, n);
+	}
+}
@@ -0,0 +1,35 @@
+import java.io.*;
+
+/**
+ * Appends finished games to a record file in the GameRecord line format.
+ * Each game is flushed as soon as it is written so that a crashed or
+ * interrupted match still leaves every completed game on disk.
+ *
+ * @author Siyang Liu
+ *
+ */
+public class GameRecorder
+{
+	private final File file;
+
+	public GameRecorder(String fileName)
+	{
+		this.file = new File(fileName);
+	}
+
+	public File getFile()
+	{
+		return file;
+	}
+
+	// Synchronized so that several games running in parallel can share
+	// one record file without interleaving their lines.
+	public synchronized void write(GameRecord record)
+		throws IOException
+	{
+		try (Writer out = new BufferedWriter(new FileWriter(file, true))) {
+			out.write(record.toLine());
+			out.write('\n');
+		}
+	}
+}
@@ -0,0 +1,93 @@
+/**
+ * The rules of a game played on a Connect4Board: which moves are legal,
+ * what a move does to the board, how many points each player has, and when
+ * the game is over. Connect4Game picks the rules once, when a game starts,
+ * and calls them on every move instead of testing the name of the game.
+ *
+ * A move is an int. In the games we have, it is the column a piece is
+ * dropped into; a variant with other kinds of moves (such as pop-out,
+ * where a player may instead remove one of their own pieces from the
+ * bottom of a column) would give those their own numbers, say col +
+ * numCols, and handle them in isLegalMove() and makeMove().
+ *
+ * Implementations hold no per-game state and may be shared.
+ *
+ * @author Siyang Liu
+ *
+ */
+public interface GameRules
+{
+	// result() of a game that is still going on.
+	public static final int NOT_OVER = -1;
+
+	/**
+	 * Get the rules of a game by the name it has on the command line.
+	 * @param game "first" or "most"
+	 * @param winLength The number of pieces in a row that make a line
+	 * @return The rules, or null if there is no such game
+	 */
+	public static GameRules forName(String game, int winLength)
+	{
+		switch (game) {
+			case "first":
+				return new FirstConnectRules(winLength);
+			case "most":
+				return new MostConnectRules(winLength);
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Get the name of the game, as given to forName().
+	 * @return The name
+	 */
+	String name();
+
+	/**
+	 * Check whether a move is legal.
+	 * @param board The position
+	 * @param move The move
+	 * @return True if the player to move may make it
+	 */
+	default boolean isLegalMove(Connect4Board board, int move)
+	{
+		return board.isValidMove(move);
+	}
+
+	/**
+	 * Make a legal move.
+	 * @param board The position, which gets the move
+	 * @param move The move
+	 * @param id The player making it
+	 */
+	default void makeMove(Connect4Board board, int move, int id)
+	{
+		board.move(move, id);
+	}
+
+	/**
+	 * Get the points a player has, for display.
+	 * @param board The position
+	 * @param id The player
+	 * @return The points
+	 */
+	int score(Connect4Board board, int id);
+
+	/**
+	 * Decide whether the game is over, and if so who won.
+	 * @param board The position after the last move
+	 * @return NOT_OVER, 0 for a draw, or the id of the winner
+	 */
+	int result(Connect4Board board);
+
+	/**
+	 * Tell whether the first line of K ends the game, so that a search can
+	 * stop at any move that makes one instead of calling result().
+	 * @return True if the first player to make a line wins
+	 */
+	default boolean firstLineWins()
+	{
+		return false;
+	}
+}
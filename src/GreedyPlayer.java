@@ -8,8 +8,12 @@ public class GreedyPlayer implements Player {
 	private int id;
 	private int oppId;
 	private int cols;
+	private int winLength = 4;
+	private EngineConfig config;
+	private BoardEvaluator.Weights weights = BoardEvaluator.Weights.DEFAULT;
 	
 	private Move[] routes;
+	private int[] scores;
 	/**
 	 * sets name of the player
 	 * 
@@ -32,6 +36,26 @@ public class GreedyPlayer implements Player {
 		this.id = id;
 		this.oppId = 3 - id;
 		this.cols = cols;
+		this.scores = new int[cols];
+		this.weights = BoardEvaluator.Weights.of((config != null) ? config : EngineConfig.global());
+	}
+	
+	/**
+	 * sets the engine parameters to read in init()
+	 * 
+	 * @param config an EngineConfig the parameters of the coming game
+	 */
+	public void setConfig(EngineConfig config) {
+		this.config = config;
+	}
+	
+	/**
+	 * sets how many pieces in a row make a line
+	 * 
+	 * @param winLength an int the line length of the coming game
+	 */
+	public void setWinLength(int winLength) {
+		this.winLength = winLength;
 	}
 	
     /**
@@ -47,12 +71,12 @@ public class GreedyPlayer implements Player {
 		if(board.isFull()) 
 			throw new Error("Error: The board is full!");
 		routes = new Move[cols];
+		// Score every move in one go: after the move, how many more lines
+		// we have than the opponent.
+		BoardEvaluator.scoreChildren(board, id, id, winLength, weights, scores);
 		for(int c = 0; c < cols; c++) {
-			if(board.isValidMove(c)) {
-				board.move(c, id);
-				int moveValue = evaluateBoard(board, id, oppId);
-				routes[c]= new Move(c, moveValue);
-				board.unmove(c, id);
+			if(scores[c] != Integer.MIN_VALUE) {
+				routes[c]= new Move(c, scores[c]);
 				}
 		}
 		Move bestMove = null;
@@ -68,87 +92,18 @@ public class GreedyPlayer implements Player {
 		
 	}
 	
-	/**
-	 * This method determines how well the player is doing against the opponent 
-	 * by getting the score if you played that particular move and your enemy's score if you
-	 * played that move. it then compares the scores by subtracting your score from the enemy's score
-	 * and returns the difference.
-	 * 
-	 * @param board a Connect4 object the board configuration of the connect4 board
-	 * @param myid an int that determines which person is playing
-	 * @param enemyid an int that determines which person is playing
-	 */
-	
-	private int evaluateBoard(Connect4Board board, int myid, int enemyid) {
-		int myScore = calcScore(board, myid);
-		int oppScore = calcScore(board,enemyid);
-		
-		return myScore - oppScore;
-	}
-	
 	/**
 	 * This method figures out if you scored a point by finding how many times 
-	 * there are 4 player moves that are right next to each other in a line, either horizontally
+	 * there are winLength player moves that are right next to each other in a line, either horizontally
 	 * Vertically or diagonally. it then adds up all the occurrences and returns the total score
 	 *   
 	 * 
 	 * @param board a Connect4Board object that shows the configuration of the board
 	 * @param id an integer that determines who the player is
-	 * @return score an int that is the total number of times the player has 4 tiles in a row
+	 * @return score an int that is the total number of times the player has winLength tiles in a row
 	 */
 	public int calcScore(Connect4Board board, int id) {
-		
-		
-		final int rows = board.numRows();
-		final int cols = board.numCols();
-				
-		int score = 0;
-		
-		//horizontal
-		for(int r=0; r<rows; r++) {
-			for(int c=0; c<=cols - 4; c++) {
-				if(board.get(r, c+0) != id) continue;
-				if(board.get(r, c+1)!= id) continue;
-				if(board.get(r, c+2)!= id) continue;
-				if(board.get(r, c+3)!= id) continue;
-				score++;
-		
-			}
-		}
-		//vertical 
-		for(int c = 0; c<cols;c++) {
-			for(int r=0;r<=rows-4;r++) {
-				if(board.get(r+0, c)!= id)continue;
-				if(board.get(r+1, c)!= id)continue;
-				if(board.get(r+2, c)!= id)continue;
-				if(board.get(r+3, c)!= id)continue;
-				score++;
-				
-				
-			}
-		}
-		//diagonal 
-		for(int c = 0; c<=cols-4;c++) {
-			for(int r=0;r<=rows-4;r++) {
-				if(board.get(r+0, c+0)!= id)continue;
-				if(board.get(r+1, c+1)!= id)continue;
-				if(board.get(r+2, c+2)!= id)continue;
-				if(board.get(r+3, c+3)!= id)continue;
-				score++;
-				
-			}
-		}
-		for(int c = 0; c<=cols-4;c++) {
-			for(int r=rows-1;r>= 3;r--) {
-				if(board.get(r-0, c+0)!= id)continue;
-				if(board.get(r-1, c+1)!= id)continue;
-				if(board.get(r-2, c+2)!= id)continue;
-				if(board.get(r-3, c+3)!= id)continue;
-				score++;
-				
-			}
-		}
-		return score;
+		return BoardEvaluator.countLines(board, id, winLength);
 	}
 	
 	private class Move implements Comparable<Move>{
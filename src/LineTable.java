@@ -0,0 +1,217 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The rules of connect-K on a board of a given size, as a table of every
+ * line of K cells: each row, column and diagonal stretch of K cells in a
+ * row. Whether a player has won, and how many lines they have, then come
+ * down to one loop over the table instead of four nested loops with the
+ * line length built in. A cell is given by its Connect4Board.getFast()
+ * index, row * cols + col.
+ *
+ * For each cell the table also lists the lines through it, so that a move
+ * can be scored by the lines it completes alone; see
+ * Connect4Board.trackLines().
+ *
+ * Tables are built once per (rows, cols, K) and shared; get() returns the
+ * shared one. They are never modified after construction, so any number
+ * of threads may use them.
+ *
+ * @author Siyang Liu
+ *
+ */
+public class LineTable
+{
+	private static final ConcurrentHashMap<Long, LineTable> TABLES =
+			new ConcurrentHashMap<Long, LineTable>();
+
+	private final int rows, cols, winLength;
+
+	// The cells of line i are cells[i * winLength] on, in order along it.
+	private final int[] cells;
+	private final int numLines;
+
+	// The lines through cell c are cellLines[cellStart[c]] up to
+	// cellLines[cellStart[c + 1]]. For boards with bitboards, masks[i] has
+	// the bits of the cells of line i, laid out as by
+	// Connect4Board.bitboard(); null otherwise.
+	private final int[] cellStart, cellLines;
+	private final long[] masks;
+
+	/**
+	 * Get the table for a board size and line length.
+	 * @param rows The number of rows
+	 * @param cols The number of columns
+	 * @param winLength The number of pieces in a row that make a line
+	 * @return The shared table
+	 */
+	public static LineTable get(int rows, int cols, int winLength)
+	{
+		long key = ((long) rows << 42) | ((long) cols << 21) | winLength;
+		LineTable table = TABLES.get(key);
+		if (table == null) {
+			table = TABLES.computeIfAbsent(key,
+					k -> new LineTable(rows, cols, winLength));
+		}
+		return table;
+	}
+
+	private LineTable(int rows, int cols, int winLength)
+	{
+		if (rows < 1 || cols < 1 || winLength < 1) {
+			throw new IllegalArgumentException("rows=" + rows + " cols="
+					+ cols + " winLength=" + winLength);
+		}
+		this.rows = rows;
+		this.cols = cols;
+		this.winLength = winLength;
+
+		// Every line starts at a cell and runs in one of four directions:
+		// right, up, up and right, and down and right.
+		final int[] dr = { 0, 1, 1, -1 };
+		final int[] dc = { 1, 0, 1, 1 };
+		int[] buf = new int[4 * rows * cols * winLength];
+		int n = 0;
+		for (int d = 0; d < 4; d++) {
+			for (int r = 0; r < rows; r++) {
+				for (int c = 0; c < cols; c++) {
+					int endRow = r + (winLength - 1) * dr[d];
+					int endCol = c + (winLength - 1) * dc[d];
+					if (endRow < 0 || endRow >= rows || endCol >= cols) continue;
+					for (int i = 0; i < winLength; i++) {
+						buf[n * winLength + i] = (r + i * dr[d]) * cols
+								+ (c + i * dc[d]);
+					}
+					n++;
+				}
+			}
+		}
+		this.cells = java.util.Arrays.copyOf(buf, n * winLength);
+		this.numLines = n;
+
+		this.cellStart = new int[rows * cols + 1];
+		for (int i = 0; i < cells.length; i++) {
+			cellStart[cells[i] + 1]++;
+		}
+		for (int c = 0; c < rows * cols; c++) {
+			cellStart[c + 1] += cellStart[c];
+		}
+		this.cellLines = new int[cells.length];
+		int[] fill = java.util.Arrays.copyOf(cellStart, rows * cols);
+		for (int i = 0; i < cells.length; i++) {
+			cellLines[fill[cells[i]]++] = i / winLength;
+		}
+
+		if (Connect4Board.fitsInLong(rows, cols)) {
+			this.masks = new long[n];
+			for (int i = 0; i < cells.length; i++) {
+				int r = cells[i] / cols;
+				int c = cells[i] % cols;
+				masks[i / winLength] |= 1L << (c * (rows + 1) + r);
+			}
+		}
+		else {
+			this.masks = null;
+		}
+	}
+
+	public int numRows()
+	{
+		return rows;
+	}
+
+	public int numCols()
+	{
+		return cols;
+	}
+
+	public int winLength()
+	{
+		return winLength;
+	}
+
+	public int numLines()
+	{
+		return numLines;
+	}
+
+	/**
+	 * Get a cell of a line.
+	 * @param line The line
+	 * @param i How far along the line, from 0 to winLength() - 1
+	 * @return The getFast() index of the cell
+	 */
+	public int cell(int line, int i)
+	{
+		return cells[line * winLength + i];
+	}
+
+	/**
+	 * Count the lines a player has (overlapping lines counted separately).
+	 * @param board The position, which must be the table's size
+	 * @param id The player
+	 * @return The number of lines
+	 */
+	public int countLines(Connect4Board board, int id)
+	{
+		final int k = winLength;
+		int count = 0;
+		for (int start = 0; start < cells.length; start += k) {
+			int i = 0;
+			while (i < k && board.getFast(cells[start + i]) == id) i++;
+			if (i == k) count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Count the lines through one cell that a player has, e.g. those a
+	 * move there just made. Much cheaper than counting every line.
+	 * @param board The position, which must be the table's size
+	 * @param cell The getFast() index of the cell
+	 * @param id The player
+	 * @return The number of lines through the cell
+	 */
+	public int countLinesThrough(Connect4Board board, int cell, int id)
+	{
+		final int end = cellStart[cell + 1];
+		int count = 0;
+		if (masks != null && board.hasBitboards()) {
+			final long bits = board.bitboard(id);
+			for (int j = cellStart[cell]; j < end; j++) {
+				long mask = masks[cellLines[j]];
+				if ((bits & mask) == mask) count++;
+			}
+			return count;
+		}
+		final int k = winLength;
+		for (int j = cellStart[cell]; j < end; j++) {
+			int start = cellLines[j] * k;
+			int i = 0;
+			while (i < k && board.getFast(cells[start + i]) == id) i++;
+			if (i == k) count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Find who has a line.
+	 * @param board The position, which must be the table's size
+	 * @return The id of the only player with a line, 0 if nobody has one,
+	 *         or -1 if both players do
+	 */
+	public int winner(Connect4Board board)
+	{
+		final int k = winLength;
+		int winner = 0;
+		for (int start = 0; start < cells.length; start += k) {
+			int id = board.getFast(cells[start]);
+			if (id == 0 || id == winner) continue;
+			int i = 1;
+			while (i < k && board.getFast(cells[start + i]) == id) i++;
+			if (i < k) continue;
+			if (winner != 0) return -1;
+			winner = id;
+		}
+		return winner;
+	}
+}
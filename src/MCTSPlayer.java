@@ -0,0 +1,686 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A Connect-4 player that uses Monte Carlo tree search.
+ *
+ * Instead of evaluating positions, it plays lots of random games (playouts)
+ * to the end and counts how often each move wins. The moves to try are
+ * chosen with UCT: mostly the ones that won most so far, but now and then
+ * the ones that have been tried least. The search tree grows by one node
+ * set per playout, towards the moves that look best.
+ *
+ * In a game won by the first line of K, a playout stops at the first
+ * line, and a tree node whose move makes one is a win for the player who
+ * made it and is never expanded. Otherwise playouts go on until the board
+ * is full, and the rules of the game decide who won.
+ *
+ * The tree lives in parallel primitive arrays rather than node objects,
+ * and the playouts run on a single scratch board with the board's fast
+ * methods, so the search allocates nothing once it is going. The arrays
+ * start small and grow between moves, up to the node budget, whenever a
+ * move filled them. It thinks for the whole time it is given.
+ *
+ * It can search with several threads, in one of two ways. With root
+ * parallelism every thread grows a tree of its own, and the visit counts
+ * of the root moves are added up at the end. With tree parallelism all
+ * threads share one tree: its counters are atomic, and a thread walking
+ * down the tree adds a "virtual loss" to each node it passes, so that the
+ * other threads look elsewhere until its playout is counted.
+ *
+ * @author Siyang Liu
+ *
+ */
+public class MCTSPlayer implements Player {
+	// Ways of searching with more than one thread.
+	public static final int ROOT_PARALLEL = 1;
+	public static final int TREE_PARALLEL = 2;
+
+	private int id;
+	private int rows;
+	private int cols;
+	private int winLength = 4;
+	private GameRules rules;
+	private EngineConfig config;
+
+	// UCT's exploration constant; sqrt(2) in theory.
+	private static final double EXPLORATION = 1.4;
+
+	// The memory a tree node takes, and the nodes a tree starts with.
+	private static final int BYTES_PER_NODE = 24;
+	private static final int INITIAL_NODES = 1 << 14;
+
+	// The virtual loss for a shared tree.
+	private static final int VIRTUAL_LOSS = 3;
+
+	// The most nodes for all trees together, and whether playouts end at
+	// the first line.
+	private int maxNodes;
+	private boolean firstLineWins;
+
+	// How often a tree at its share of the budget had no room for a node.
+	private final AtomicLong refused = new AtomicLong();
+
+	private int threads = 1;
+	private int parallelism = TREE_PARALLEL;
+	private Tree[] trees;
+	private Worker[] workers;
+	private ExecutorService executor;
+	private volatile boolean stop;
+	private long playouts;
+
+	// Visits per root move, summed over the trees.
+	private int[] rootVisits;
+
+	private TimeManager time;
+	private SplittableRandom rand = new SplittableRandom();
+
+	/**
+	 * sets name of the player
+	 *
+	 * @return string the players name
+	 */
+	public String name() {
+		return "MCTS";
+	}
+
+    /**
+     * Initialize the player. The game calls this method once,
+     * before any calls to calcMove().
+     *
+     * @param id integer identifier for the player (can get opponent's id via 3-id);
+     * @param msecPerMove time allowed for each move
+     * @param rows the number of rows in the board
+     * @param cols the number of columns in the board
+     */
+	public void init(int id, int msecPerMove, int rows, int cols) {
+		this.id = id;
+		this.rows = rows;
+		this.cols = cols;
+		this.rootVisits = new int[cols];
+		EngineConfig config = (this.config != null) ? this.config : EngineConfig.global();
+		this.time = new TimeManager(msecPerMove, config);
+		this.trees = null;
+		if(rules == null)
+			rules = GameRules.forName("most", winLength);
+		this.firstLineWins = rules.firstLineWins();
+		// The same memory as NodeArena's default budget, unless configured.
+		this.maxNodes = config.getInt("search.nodeBudget", 0);
+		if(maxNodes <= 0)
+			maxNodes = (int) ((long) NodeArena.defaultMaxNodes() * NodeArena.BYTES_PER_NODE / BYTES_PER_NODE);
+		if(config.has("mcts.threads") || config.has("mcts.parallelism")) {
+			String kind = config.get("mcts.parallelism", (parallelism == ROOT_PARALLEL) ? "root" : "tree");
+			if(!kind.equals("root") && !kind.equals("tree"))
+				throw new IllegalArgumentException("mcts.parallelism: not root or tree: " + kind);
+			setThreads(config.getInt("mcts.threads", threads), kind.equals("root") ? ROOT_PARALLEL : TREE_PARALLEL);
+		}
+	}
+
+	/**
+	 * sets the engine parameters to read in init()
+	 *
+	 * @param config an EngineConfig the parameters of the coming game
+	 */
+	public void setConfig(EngineConfig config) {
+		this.config = config;
+	}
+
+	public void setRandom(SplittableRandom rand) {
+		this.rand = rand;
+		this.trees = null;
+	}
+
+	/**
+	 * sets how many pieces in a row make a line
+	 *
+	 * @param winLength an int the line length of the coming game
+	 */
+	public void setWinLength(int winLength) {
+		this.winLength = winLength;
+	}
+
+	/**
+	 * sets the rules of the coming game, which decide the playouts
+	 *
+	 * @param rules a GameRules object the rules of the coming game
+	 */
+	public void setRules(GameRules rules) {
+		this.rules = rules;
+	}
+
+	/**
+	 * Sets how many threads to search with, and how.
+	 *
+	 * @param threads an int the number of threads, at least 1
+	 * @param parallelism an int ROOT_PARALLEL or TREE_PARALLEL
+	 */
+	public void setThreads(int threads, int parallelism) {
+		if(threads < 1 || (parallelism != ROOT_PARALLEL && parallelism != TREE_PARALLEL))
+			throw new IllegalArgumentException("threads=" + threads + " parallelism=" + parallelism);
+		this.threads = threads;
+		this.parallelism = parallelism;
+		this.trees = null;
+		if(executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+	}
+
+	/**
+	 * shuts down the helper threads, which would otherwise sit idle until
+	 * the program exits
+	 */
+	public void dispose() {
+		trees = null;
+		if(executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+	}
+
+	/**
+	 * gets how often a tree had grown to its share of the node budget and
+	 * a leaf had to stay unexpanded, over the whole game so far
+	 *
+	 * @return the number of refused expansions
+	 */
+	@Override
+	public long getRefusedExpansions() {
+		return refused.get();
+	}
+
+	/**
+	 * gets the number of playouts of the last move, over all threads
+	 *
+	 * @return the number of playouts
+	 */
+	public long getPlayouts() {
+		return playouts;
+	}
+
+    /**
+     * Called by driver program to calculate the next move.
+     *
+     * @param board current connect 4 board
+     * @param oppMoveCol column of opponent's most recent move; -1 if this is the first move
+     * 		  of the game; note that the board may not be empty on the first move of the game!
+     * @param arb handles communication between game and player
+     * @throws TimeUpException If the game determines the player has run out of time
+     */
+	public void calcMove(Connect4Board board, int oppMoveCol, Arbitrator arb) throws TimeUpException{
+		if(board.isFull())
+			throw new Error("Error: The board is full!");
+
+		time.startMove(board, arb);
+		if(trees == null)
+			setUp();
+		for(Tree tree: trees) {
+			tree.growIfFull(maxNodes / trees.length);
+			tree.reset();
+			tree.expand(0, board);
+		}
+		arb.setMove(bestMove());
+		if(trees[0].numChildren[0] == 1)
+			return;
+
+		stop = false;
+		Future<?>[] helpers = new Future<?>[workers.length - 1];
+		for(int i = 1; i < workers.length; i++)
+			helpers[i - 1] = executor.submit(workers[i].on(board));
+
+		// This thread is worker 0. It also checks the clock and publishes the
+		// best move so far every so often, not after every playout.
+		Worker main = workers[0].on(board);
+		try {
+			int count = 0;
+			while(!arb.isTimeUp()) {
+				main.playout();
+				if((++count & 255) == 0) {
+					arb.setMove(bestMove());
+					if(time.elapsed() >= time.budget())
+						break;
+				}
+			}
+		}
+		finally {
+			stop = true;
+			for(Future<?> helper: helpers)
+				waitFor(helper);
+		}
+		arb.setMove(bestMove());
+		playouts = 0;
+		for(Worker w: workers)
+			playouts += w.playouts;
+	}
+
+	/**
+	 * Creates the trees, the workers and the helper threads for the current
+	 * number of threads.
+	 */
+	private void setUp() {
+		boolean shared = parallelism == TREE_PARALLEL;
+		trees = new Tree[shared ? 1 : threads];
+		for(int i = 0; i < trees.length; i++)
+			trees[i] = new Tree(Math.min(INITIAL_NODES, maxNodes / trees.length), shared && threads > 1 ? VIRTUAL_LOSS : 0);
+		workers = new Worker[threads];
+		for(int i = 0; i < threads; i++)
+			workers[i] = new Worker(trees[shared ? 0 : i], rand.split());
+		if(threads > 1 && executor == null) {
+			executor = Executors.newFixedThreadPool(threads - 1, r -> {
+				Thread t = new Thread(r, "MCTS worker");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+	}
+
+	/**
+	 * waits for a helper thread to finish its share of the search
+	 *
+	 * @param helper a Future object the helper's task
+	 */
+	private void waitFor(Future<?> helper) {
+		while(true) {
+			try {
+				helper.get();
+				return;
+			} catch (InterruptedException e) {
+				// The helper stops soon anyway; keep waiting.
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * finds the root move visited most, over all the trees
+	 *
+	 * @return the column of the best move
+	 */
+	private int bestMove() {
+		java.util.Arrays.fill(rootVisits, 0);
+		for(Tree tree: trees) {
+			int first = tree.firstChild[0];
+			for(int c = first; c < first + tree.numChildren[0]; c++)
+				rootVisits[tree.move[c]] += tree.visits.get(c);
+		}
+		int best = -1;
+		for(int c = 0; c < cols; c++) {
+			if(trees[0].hasMove(c) && (best < 0 || rootVisits[c] > rootVisits[best]))
+				best = c;
+		}
+		return best;
+	}
+
+	/**
+	 * A search tree in parallel arrays. Node 0 is the root. The children of
+	 * a node are stored next to each other, from firstChild on. halfPoints is
+	 * the total result of the node's playouts for the player who made the
+	 * move into the node, counting 2 for a win and 1 for a draw.
+	 *
+	 * A node is expanded by one thread at a time: the thread that moves its
+	 * state from UNEXPANDED to EXPANDING fills in the children and then sets
+	 * it to EXPANDED, which makes them visible to the other threads. A node
+	 * whose move ends the game is TERMINAL instead, and never expanded.
+	 *
+	 * The arrays only change size between moves, while no thread searches.
+	 */
+	private class Tree {
+		private static final int UNEXPANDED = 0;
+		private static final int EXPANDING = 1;
+		private static final int EXPANDED = 2;
+		private static final int TERMINAL = 3;
+
+		private int[] move;
+		private int[] firstChild;
+		private int[] numChildren;
+		private AtomicIntegerArray state;
+		private AtomicIntegerArray visits;
+		private AtomicIntegerArray halfPoints;
+		private final AtomicInteger numNodes = new AtomicInteger();
+		private final int virtualLoss;
+		private volatile boolean full;
+
+		/**
+		 * Tree constructor.
+		 *
+		 * @param capacity : the most nodes the tree can hold for now
+		 * @param virtualLoss : the visits to add to a node while a playout through it runs
+		 */
+		public Tree(int capacity, int virtualLoss) {
+			allocate(Math.max(capacity, cols + 1));
+			this.virtualLoss = virtualLoss;
+		}
+
+		private void allocate(int capacity) {
+			move = new int[capacity];
+			firstChild = new int[capacity];
+			numChildren = new int[capacity];
+			state = new AtomicIntegerArray(capacity);
+			visits = new AtomicIntegerArray(capacity);
+			halfPoints = new AtomicIntegerArray(capacity);
+		}
+
+		/**
+		 * Makes the tree twice as big, up to a limit, if the last search ran
+		 * out of room. Only call this while no thread is searching.
+		 *
+		 * @param maxNodes : the most nodes the tree may ever hold
+		 */
+		public void growIfFull(int maxNodes) {
+			if(full && move.length < maxNodes)
+				allocate((int) Math.min(maxNodes, 2L * move.length));
+			full = false;
+		}
+
+		/**
+		 * empties the tree, leaving only the root
+		 */
+		public void reset() {
+			numNodes.set(1);
+			move[0] = -1;
+			numChildren[0] = 0;
+			state.set(0, UNEXPANDED);
+			visits.set(0, 0);
+			halfPoints.set(0, 0);
+		}
+
+		public boolean isExpanded(int node) {
+			return state.get(node) == EXPANDED;
+		}
+
+		public boolean isTerminal(int node) {
+			return state.get(node) == TERMINAL;
+		}
+
+		/**
+		 * marks a leaf whose move ends the game, so that it is never expanded
+		 *
+		 * @param node : the leaf
+		 */
+		public void setTerminal(int node) {
+			state.compareAndSet(node, UNEXPANDED, TERMINAL);
+		}
+
+		/**
+		 * whether the root has a child for a column
+		 *
+		 * @return True if the move is legal at the root
+		 */
+		public boolean hasMove(int col) {
+			for(int c = firstChild[0]; c < firstChild[0] + numChildren[0]; c++) {
+				if(move[c] == col)
+					return true;
+			}
+			return false;
+		}
+
+		/**
+		 * notes that there was no room for a node's children. Below its
+		 * share of the budget the tree just grows before the next move, so
+		 * only refusals at the budget count.
+		 */
+		private void refuse() {
+			full = true;
+			if(move.length >= maxNodes / trees.length)
+				refused.incrementAndGet();
+		}
+
+		/**
+		 * Adds a child for every legal move of a node, unless another thread
+		 * is already doing so or the tree is full.
+		 *
+		 * @param node : the node to expand
+		 * @param board : the position at the node
+		 * @return True if this thread expanded the node
+		 */
+		public boolean expand(int node, Connect4Board board) {
+			if(numNodes.get() + cols > move.length) {
+				refuse();
+				return false;
+			}
+			if(!state.compareAndSet(node, UNEXPANDED, EXPANDING))
+				return false;
+			int n = 0;
+			for(int c = 0; c < cols; c++) {
+				if(board.height(c) < rows)
+					n++;
+			}
+			int first = numNodes.getAndAdd(n);
+			if(first + n > move.length) {
+				refuse();
+				return false;	// full after all; the node stays unexpanded for good
+			}
+			int child = first;
+			for(int c = 0; c < cols; c++) {
+				if(board.height(c) < rows) {
+					move[child] = c;
+					numChildren[child] = 0;
+					state.set(child, UNEXPANDED);
+					visits.set(child, 0);
+					halfPoints.set(child, 0);
+					child++;
+				}
+			}
+			firstChild[node] = first;
+			numChildren[node] = n;
+			state.set(node, EXPANDED);
+			return true;
+		}
+
+		/**
+		 * Picks the child to descend into: an untried child if there is one,
+		 * otherwise the one with the best upper confidence bound.
+		 *
+		 * @param node : the node whose children to choose from
+		 * @return the chosen child
+		 */
+		public int select(int node) {
+			int first = firstChild[node];
+			int end = first + numChildren[node];
+			double logVisits = Math.log(Math.max(1, visits.get(node)));
+			int best = first;
+			double bestBound = Double.NEGATIVE_INFINITY;
+			for(int c = first; c < end; c++) {
+				int v = visits.get(c);
+				if(v == 0)
+					return c;
+				double bound = halfPoints.get(c) / (2.0 * v) + EXPLORATION * Math.sqrt(logVisits / v);
+				if(bound > bestBound) {
+					bestBound = bound;
+					best = c;
+				}
+			}
+			return best;
+		}
+	}
+
+	/**
+	 * One thread's share of the search, with its own scratch space: the
+	 * board, the path from the root, the columns that still have room, and
+	 * a random generator.
+	 */
+	private class Worker implements Runnable {
+		private final Tree tree;
+		private final SplittableRandom rand;
+		private final Connect4Board work;
+		private final int[] path;
+		private final int[] open;
+		private final LineTable lines;
+		private Connect4Board root;
+		private long playouts;
+
+		/**
+		 * Worker constructor.
+		 *
+		 * @param tree : the tree to grow
+		 * @param rand : the worker's own random generator
+		 */
+		public Worker(Tree tree, SplittableRandom rand) {
+			this.tree = tree;
+			this.rand = rand;
+			this.work = new Connect4Board(rows, cols);
+			this.path = new int[rows * cols + 1];
+			this.open = new int[cols];
+			this.lines = LineTable.get(rows, cols, winLength);
+		}
+
+		/**
+		 * gets the worker ready to search a position
+		 *
+		 * @return the worker
+		 */
+		public Worker on(Connect4Board root) {
+			this.root = root;
+			this.playouts = 0;
+			return this;
+		}
+
+		/**
+		 * runs playouts until the search is stopped
+		 */
+		public void run() {
+			while(!stop)
+				playout();
+		}
+
+		/**
+		 * Runs one playout: walks down the tree with UCT, adds the children of
+		 * the node it ends at, plays randomly from there to the end of the game,
+		 * and credits the result to every node on the way.
+		 */
+		public void playout() {
+			final int loss = tree.virtualLoss;
+			work.copyFrom(root);
+			int mover = id;
+			int node = 0;
+			int depth = 0;
+			int cell = -1;
+			path[depth++] = node;
+			while(tree.isExpanded(node)) {
+				node = tree.select(node);
+				tree.visits.addAndGet(node, loss);
+				cell = moveFast(tree.move[node], mover);
+				mover = 3 - mover;
+				path[depth++] = node;
+			}
+			// A move into the tree that made a line ends the playout there.
+			boolean won = tree.isTerminal(node) || madeLine(cell, 3 - mover);
+			if(!won && tree.visits.get(node) > loss && !work.isFull() && tree.expand(node, work)) {
+				node = tree.firstChild[node] + rand.nextInt(tree.numChildren[node]);
+				tree.visits.addAndGet(node, loss);
+				cell = moveFast(tree.move[node], mover);
+				mover = 3 - mover;
+				path[depth++] = node;
+				won = madeLine(cell, 3 - mover);
+			}
+			int winner;
+			if(won) {
+				tree.setTerminal(node);
+				winner = 3 - mover;
+			}
+			else
+				winner = rollout(mover);
+
+			// The node at depth k was reached by a move of ours if k is odd.
+			// Every node but the root carries a virtual loss to take back.
+			for(int k = 0; k < depth; k++) {
+				int n = path[k];
+				int movedBy = (k % 2 == 1) ? id : 3 - id;
+				tree.visits.addAndGet(n, (k == 0) ? 1 : 1 - loss);
+				if(winner == movedBy)
+					tree.halfPoints.addAndGet(n, 2);
+				else if(winner == 0)
+					tree.halfPoints.addAndGet(n, 1);
+			}
+			playouts++;
+		}
+
+		/**
+		 * Plays random moves on the scratch board until the game is over:
+		 * the board is full, or, if the first line wins, someone has one.
+		 *
+		 * @param mover : the player to move first
+		 * @return the winner, or 0 for a draw
+		 */
+		private int rollout(int mover) {
+			int numOpen = 0;
+			for(int c = 0; c < cols; c++) {
+				if(work.height(c) < rows)
+					open[numOpen++] = c;
+			}
+			while(numOpen > 0) {
+				int i = rand.nextInt(numOpen);
+				int c = open[i];
+				if(madeLine(moveFast(c, mover), mover))
+					return mover;
+				mover = 3 - mover;
+				if(work.height(c) == rows)
+					open[i] = open[--numOpen];
+			}
+			return firstLineWins ? 0 : rules.result(work);
+		}
+
+		/**
+		 * makes a move on the scratch board
+		 *
+		 * @return the getFast() index of the cell the piece landed in
+		 */
+		private int moveFast(int col, int mover) {
+			return work.moveFast(col, mover) * cols + col;
+		}
+
+		/**
+		 * whether a move just made ended a game won by the first line
+		 *
+		 * @param cell : the cell of the move, or -1 for none
+		 * @param mover : the player who made it
+		 * @return True if the game is won by the first line and the move made one
+		 */
+		private boolean madeLine(int cell, int mover) {
+			return firstLineWins && cell >= 0 && lines.countLinesThrough(work, cell, mover) > 0;
+		}
+	}
+
+	// Measure playouts per second from the empty board for 1, 2, 4, ...
+	// threads with each kind of parallelism.
+	public static void main(String[] args) throws TimeUpException {
+		int msec = 1000;
+		int maxThreads = Runtime.getRuntime().availableProcessors();
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].equals("-t") && i + 1 < args.length)
+				msec = Integer.parseInt(args[++i]);
+			else if(args[i].equals("-n") && i + 1 < args.length)
+				maxThreads = Integer.parseInt(args[++i]);
+			else {
+				System.err.println("usage: MCTSPlayer [-t msecPerMove] [-n maxThreads]");
+				System.exit(1);
+			}
+		}
+		// A first search, not counted, lets the JIT compile the playout code.
+		MCTSPlayer warmUp = new MCTSPlayer();
+		warmUp.init(1, msec, 6, 7);
+		warmUp.calcMove(new Connect4Board(6, 7), -1, new Arbitrator(msec, -1, 0));
+		
+		for(int parallelism = ROOT_PARALLEL; parallelism <= TREE_PARALLEL; parallelism++) {
+			for(int n = 1; n <= maxThreads; n *= 2) {
+				MCTSPlayer p = new MCTSPlayer();
+				p.init(1, msec, 6, 7);
+				p.setThreads(n, parallelism);
+				Connect4Board board = new Connect4Board(6, 7);
+				long start = System.nanoTime();
+				p.calcMove(board, -1, new Arbitrator(msec, -1, 0));
+				double secs = (System.nanoTime() - start) / 1e9;
+				System.out.printf("%s, %2d threads: %,10.0f playouts/s%n",
+						(parallelism == ROOT_PARALLEL) ? "root" : "tree", n, p.getPlayouts() / secs);
+				p.dispose();
+			}
+		}
+	}
+}
@@ -4,13 +4,41 @@
  * @author Siyang Liu
  *
  */
-import java.util.ArrayList;
-
 public class MinimaxPlayer implements Player {
 	
 	private int id;
 	private int oppId;
 	private int cols;
+	private int winLength = 4;
+	
+	// Engine parameters (EngineConfig.global() unless the game gives us
+	// some), and what init() read from them.
+	private EngineConfig config;
+	private int maxDepth;
+	private BoardEvaluator.Weights weights = BoardEvaluator.Weights.DEFAULT;
+	
+	// Results of earlier searches, kept from one move to the next.
+	private static final int TABLE_BITS = 18;
+	private TranspositionTable table;
+	
+	// Decides when to stop deepening. The search itself stops at the
+	// deadline, the time manager's hard limit, even in mid-iteration.
+	private TimeManager time;
+	private long deadline;
+	
+	// The search tree, and the board the search moves along it.
+	private NodeArena tree;
+	private Connect4Board searchBoard;
+	
+	// The most nodes the tree may hold. Past that the search carries on
+	// without a tree rather than using up the heap.
+	private int maxNodes = NodeArena.defaultMaxNodes();
+	
+	// The moves and children of each position on the line being searched,
+	// indexed by the number of stones on the board.
+	private int[][] plyMoves;
+	private int[][] plyChildren;
+	
 	/**
 	 * sets name of the player
 	 * 
@@ -33,6 +61,64 @@ public class MinimaxPlayer implements Player {
 		this.id = id;
 		this.oppId = 3 - id; 
 		this.cols = cols;
+		EngineConfig config = (this.config != null) ? this.config : EngineConfig.global();
+		this.table = new TranspositionTable(1 << config.getInt("table.bits", TABLE_BITS));
+		this.time = new TimeManager(msecPerMove, config);
+		this.maxDepth = config.getInt("search.maxDepth", 0);
+		this.weights = BoardEvaluator.Weights.of(config);
+		if(config.getInt("search.nodeBudget", 0) > 0)
+			this.maxNodes = config.getInt("search.nodeBudget", 0);
+		this.tree = new NodeArena(1 << 16, maxNodes);
+		this.searchBoard = new Connect4Board(rows, cols);
+		// Too big for bitboards, recounting every line at every leaf gets
+		// slow; counting lines as the search makes and takes back moves
+		// costs only the lines through one cell per move.
+		if(!Connect4Board.fitsInLong(rows, cols))
+			searchBoard.trackLines(winLength);
+		this.plyMoves = new int[rows * cols + 1][cols];
+		this.plyChildren = new int[rows * cols + 1][cols];
+	}
+	
+	/**
+	 * sets the engine parameters to read in init()
+	 * 
+	 * @param config an EngineConfig the parameters of the coming game
+	 */
+	public void setConfig(EngineConfig config) {
+		this.config = config;
+	}
+	
+	/**
+	 * sets how many pieces in a row make a line
+	 * 
+	 * @param winLength an int the line length of the coming game
+	 */
+	public void setWinLength(int winLength) {
+		this.winLength = winLength;
+	}
+	
+	/**
+	 * Sets the most nodes the search tree may hold. Once it is full the
+	 * search goes on without keeping the rest of the tree, so it can't run
+	 * out of memory however large the board.
+	 * 
+	 * @param maxNodes an int the node budget
+	 */
+	public void setNodeBudget(int maxNodes) {
+		this.maxNodes = maxNodes;
+		if(tree != null)
+			tree = new NodeArena(1 << 16, maxNodes);
+	}
+	
+	/**
+	 * gets how often the search tree was full and a position had to be
+	 * searched without one, over the whole game so far
+	 * 
+	 * @return the number of refused expansions
+	 */
+	@Override
+	public long getRefusedExpansions() {
+		return (tree == null) ? 0 : tree.totalRefused();
 	}
 	
     /**
@@ -48,94 +134,134 @@ public class MinimaxPlayer implements Player {
 		if(board.isFull())
 			throw new Error("Error: The board is full!");
 		
-		BST root = new BST(-1, board);
-		
-		for(int i = 0; i < cols; i++) {
-			if(!board.isColumnFull(i)) {
-				board.move(i, id);
-				root.addChild(i, new Connect4Board(board));
-				board.unmove(i, id);
-			}
-		}
+		time.startMove(board, arb);
+		deadline = time.deadline();
+		searchBoard.copyFrom(board);
+		int root = tree.reset();
+		tree.expand(root, searchBoard);
 		
 		int searchDepth = 1;
-		while(!arb.isTimeUp() && searchDepth <= board.numEmptyCells()) {
+		while(!isTimeUp(arb) && searchDepth <= board.numEmptyCells() && (maxDepth == 0 || searchDepth <= maxDepth)) {
 			
-			minimax(root, searchDepth, true, arb);
-			arb.setMove(root.chosenMove);
+			int value = minimax(searchBoard, root, searchDepth, true, arb);
+			// An iteration cut short is only good for a first guess.
+			if(isTimeUp(arb) && searchDepth > 1)
+				break;
+			if(tree.chosenMove(root) >= 0)
+				arb.setMove(tree.chosenMove(root));
 			searchDepth++;
+			time.iterationDone(tree.chosenMove(root), value);
+			if(time.shouldStop())
+				break;
 			}
 	}
 	
+	/**
+	 * whether the search has to stop: the game says time is up, or the move
+	 * has reached its deadline
+	 * 
+	 * @param arb an Arbitrator object
+	 * @return True if the search has to stop
+	 */
+	private boolean isTimeUp(Arbitrator arb) {
+		return arb.isTimeUp() || System.nanoTime() > deadline;
+	}
+	
 	/**
 	 * minimax: this looks at all the possible future moves by looking at future moves of both
-	 * the player and the enemy through a binary search tree  
+	 * the player and the enemy through a search tree  
 	 * it returns the value of the best possible move
 	 *   
 	 * 
-	 * @param node a BST object these are the children moves we need to check if they are the best option
+	 * @param board a Connect4Board object the position at the node; moves are made and taken back on it
+	 * @param node an int the node in the tree whose children we need to check for the best option,
+	 * 		  or -1 below the point where the tree ran out of room
 	 * @param depth an int the search depth
 	 * @param maxminimizingPlayer a boolean to determine if we need to max or min the value based on which player is going 
 	 * @param arb an Arbitrator object
 	 * @return value an int that is the value of the best possible move.
 	 */
-	private int minimax(BST node, int depth, boolean maxminimizingPlayer, Arbitrator arb) {
+	private int minimax(Connect4Board board, int node, int depth, boolean maxminimizingPlayer, Arbitrator arb) {
 		
-		if(depth == 0 || node.isTerminal() || arb.isTimeUp()) {
-			node.value = evaluateNode(node);
-			return node.value;
+		if(depth == 0 || board.isFull() || isTimeUp(arb)) {
+			int value = evaluateNode(board);
+			if(node >= 0)
+				tree.setValue(node, value);
+			return value;
 		}
 		
-		if(node.isLeaf()){
-			int moveId = maxminimizingPlayer ? id : oppId;
-			
-			for(int i = 0; i < cols; i++){
-				if(!node.board.isColumnFull(i)){
-					node.board.move(i , moveId);
-					node.addChild(i, new Connect4Board(node.board));
-					node.board.unmove(i, moveId);
-					}
+		// A position already searched at least this deep, during this move
+		// or an earlier one, doesn't need searching again. Nor does its
+		// mirror image, which shares the entry.
+		long key = board.canonicalHash();
+		int slot = table.find(key);
+		if(slot >= 0 && table.flag(slot) == TranspositionTable.EXACT && table.depth(slot) >= depth) {
+			int tableMove = board.canonicalCol(table.move(slot));
+			if(tableMove >= 0 && board.isValidMove(tableMove)) {
+				if(node >= 0) {
+					tree.setValue(node, table.value(slot));
+					tree.setChosenMove(node, tableMove);
 				}
+				return table.value(slot);
 			}
+		}
+		
+		int moveId = maxminimizingPlayer ? id : oppId;
+		int[] moves = plyMoves[board.numOccupiedCells()];
+		int[] children = plyChildren[board.numOccupiedCells()];
+		int n = tree.listChildren(node, board, moves, children);
+		
+		int value;
+		int chosenMove = -1;
 		if(maxminimizingPlayer) {
-			int value = Integer.MIN_VALUE;
-			for(BST child: node.children) {
-				int newVal = minimax(child, depth - 1, false, arb);
+			value = Integer.MIN_VALUE;
+			for(int i = 0; i < n; i++) {
+				int move = moves[i];
+				board.moveFast(move, moveId);
+				int newVal = minimax(board, children[i], depth - 1, false, arb);
+				board.unmoveFast(move);
 				if(newVal > value) {
 					value = newVal;
-					node.value = value;
-					node.chosenMove = child.move;
+					chosenMove = move;
 					
 				}
 				else if (newVal == value) {
-					int currMoveDistFromCenter = Math.abs(cols/2 -node.chosenMove);
-					int newMoveDistFromCenter = Math.abs(cols/2 - child.move);
+					int currMoveDistFromCenter = Math.abs(cols/2 - chosenMove);
+					int newMoveDistFromCenter = Math.abs(cols/2 - move);
 					if(newMoveDistFromCenter < currMoveDistFromCenter) 
-						node.chosenMove = child.move;
+						chosenMove = move;
 				}
 			}
-			return value;
 		}
 		else {
-			int value = Integer.MAX_VALUE;
-			for(BST child: node.children) {
-				int newVal = minimax(child, depth - 1, true, arb);
+			value = Integer.MAX_VALUE;
+			for(int i = 0; i < n; i++) {
+				int move = moves[i];
+				board.moveFast(move, moveId);
+				int newVal = minimax(board, children[i], depth - 1, true, arb);
+				board.unmoveFast(move);
 				if(newVal < value) {
 					value = newVal;
-					node.value = value;
-					node.chosenMove = child.move;
+					chosenMove = move;
 				}
 				else if (newVal == value) {
-					int currMoveDistFromCenter = Math.abs(cols/2 -node.chosenMove);
-					int newMoveDistFromCenter = Math.abs(cols/2 - child.move);
+					int currMoveDistFromCenter = Math.abs(cols/2 - chosenMove);
+					int newMoveDistFromCenter = Math.abs(cols/2 - move);
 					if(newMoveDistFromCenter < currMoveDistFromCenter) 
-						node.chosenMove = child.move;
+						chosenMove = move;
 				}
 			}
-			return value;
 		}
 		
+		if(node >= 0) {
+			tree.setValue(node, value);
+			tree.setChosenMove(node, chosenMove);
+		}
 		
+		// Results of a search that ran out of time are not trustworthy.
+		if(!isTimeUp(arb))
+			table.store(key, depth, value, TranspositionTable.EXACT, board.canonicalCol(chosenMove));
+		return value;
 		}
 	
 	/**
@@ -145,126 +271,30 @@ public class MinimaxPlayer implements Player {
 	 * and returns the difference.
 	 *   
 	 * 
-	 * @param node a BST object the last move the player did
+	 * @param board a Connect4Board object the position after the last move
 	 */
-	private int evaluateNode(BST node) {
-		int myScore = calcScore(node.board, id);
-		int oppScore = calcScore(node.board,oppId);
-		return myScore - oppScore;
+	private int evaluateNode(Connect4Board board) {
+		if(!weights.linesOnly())
+			return BoardEvaluator.score(board, id, winLength, weights);
+		int myScore = calcScore(board, id);
+		int oppScore = calcScore(board,oppId);
+		return weights.line * (myScore - oppScore);
 		
 	}
 
 	/**
 	 * This method figures out if you scored a point by finding how many times 
-	 * there are 4 player moves that are right next to each other in a line, either horizontally
+	 * there are winLength player moves that are right next to each other in a line, either horizontally
 	 * Vertically or diagonally. it then adds up all the occurrences and returns the total score
 	 *   
 	 * 
 	 * @param board a Connect4Board object that shows the configuration of the board
 	 * @param id an integer that determines who the player is
-	 * @return score an int that is the total number of times the player has 4 tiles in a row
+	 * @return score an int that is the total number of times the player has winLength tiles in a row
 	 */
 	public int calcScore(Connect4Board board, int id) {
-		
-		final int rows = board.numRows();
-		final int cols = board.numCols();
-		int score = 0;		
-		
-		//horizontal
-		for(int r = 0; r < rows; r++) {
-			for(int c = 0; c <= cols - 4; c++) {
-				if(board.get(r, c + 0) != id) continue;
-				if(board.get(r, c + 1) != id) continue;
-				if(board.get(r, c + 2) != id) continue;
-				if(board.get(r, c + 3) != id) continue;
-				score++;
-		
-			}
-		}
-		//vertical 
-		for(int c = 0; c < cols; c++) {
-			for(int r = 0; r <= rows - 4; r++) {
-				if(board.get(r + 0, c) != id)continue;
-				if(board.get(r + 1, c) != id)continue;
-				if(board.get(r + 2, c) != id)continue;
-				if(board.get(r + 3, c) != id)continue;
-				score++;
-				
-				
-			}
-		}
-		//diagonal 
-		for(int c = 0; c <= cols - 4; c++) {
-			for(int r = 0; r <= rows - 4; r++) {
-				if(board.get(r + 0, c + 0) != id)continue;
-				if(board.get(r + 1, c + 1) != id)continue;
-				if(board.get(r + 2, c + 2) != id)continue;
-				if(board.get(r + 3, c + 3) != id)continue;
-				score++;
-				
-			}
-		}
-		for(int c = 0; c <= cols - 4; c++) {
-			for(int r = rows - 1; r >= 4 - 1; r--) {
-				if(board.get(r - 0, c + 0) != id)continue;
-				if(board.get(r - 1, c + 1) != id)continue;
-				if(board.get(r - 2, c + 2) != id)continue;
-				if(board.get(r - 3, c + 3) != id)continue;
-				score++;
-			}
-		}
-		return score;
-	}
-
-	private class BST{
-		private Connect4Board board;
-		private int move;
-		private ArrayList<BST> children; 
-		private int chosenMove;
-		private int value;
-		
-		/**
-		 * BST constructor. creates a BST and puts the different nodes 
-		 * into an array called children 
-		 * the nodes consist of the the move and the board configuration of the move 
-		 * 
-		 * @param move : the move number of the current node
-		 * @param board : the board configuration of that move 
-		 */
-		public BST(int move, Connect4Board board) {
-			this.move = move;
-			this.board = board;
-			children = new ArrayList<BST>();
-		}
-		
-		/**
-		 * this adds a new node to the BST array 
-		 * 
-		 * @return a new node within the array children 
-		 */
-		public void addChild(int move, Connect4Board board) {
-			children.add(new BST(move, board));
-			
-		}
-		
-		/**
-		 * whether or not the node is a leaf if it has no children.
-		 * 
-		 * @return True if the node is a leaf 
-		 */
-		public boolean isLeaf() {
-			return children.size() == 0;
-		}
-		
-		/**
-		 * whether or not the board is full 
-		 * 
-		 * @return True if the board is full
-		 */
-		public boolean isTerminal() {
-			return board.isFull();
-		}
+		return BoardEvaluator.countLines(board, id, winLength);
 	}
 
 	
-}
\ No newline at end of file
+}
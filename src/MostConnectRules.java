@@ -0,0 +1,35 @@
+/**
+ * The game goes on until the board is full, and the player with the most
+ * lines of K (overlapping lines counted separately) wins.
+ *
+ * @author Siyang Liu
+ *
+ */
+public class MostConnectRules implements GameRules
+{
+	private final int winLength;
+
+	public MostConnectRules(int winLength)
+	{
+		this.winLength = winLength;
+	}
+
+	public String name()
+	{
+		return "most";
+	}
+
+	public int score(Connect4Board board, int id)
+	{
+		return BoardEvaluator.countLines(board, id, winLength);
+	}
+
+	public int result(Connect4Board board)
+	{
+		if (!board.isFull()) return NOT_OVER;
+		int p1Points = score(board, 1);
+		int p2Points = score(board, 2);
+		if (p1Points == p2Points) return 0;
+		return (p1Points > p2Points) ? 1 : 2;
+	}
+}
@@ -0,0 +1,267 @@
+/**
+ * Storage for the search trees of the tree-based players. Instead of an
+ * object per node (plus a list of children and a copy of the board), a
+ * node is an index into a few parallel int arrays holding its move, its
+ * value, the move chosen at it, and where its children are. The children
+ * of a node are always allocated together, so they sit next to each other
+ * from firstChild() on. A node costs 20 bytes, and nothing is allocated
+ * once the arrays have grown to the size of the largest tree.
+ *
+ * The tree holds no boards: a player keeps a single board in step with
+ * the node it is at, making each move on the way down and taking it back
+ * on the way up.
+ *
+ * The arena is reset at the start of each move, which frees every node at
+ * once. It never grows past a budget of nodes: once that is reached,
+ * expand() refuses, and listChildren() hands out the moves of a node with
+ * no child nodes, so a player can carry on searching below that point
+ * without a tree rather than running out of memory. Not thread-safe.
+ *
+ * @author Siyang Liu
+ *
+ */
+public class NodeArena
+{
+	public static final int BYTES_PER_NODE = 20;
+
+	private int[] move;
+	private int[] value;
+	private int[] chosenMove;
+	private int[] firstChild;
+	private int[] numChildren;
+	private int size;
+
+	// The most nodes the arena may hold, and how many expansions it
+	// refused since the last reset, and ever.
+	private final int maxNodes;
+	private int refused;
+	private long totalRefused;
+
+	/**
+	 * Create an empty arena with a budget of a tenth of the heap.
+	 * @param capacity The number of nodes to make room for at first
+	 */
+	public NodeArena(int capacity)
+	{
+		this(capacity, defaultMaxNodes());
+	}
+
+	/**
+	 * Create an empty arena.
+	 * @param capacity The number of nodes to make room for at first
+	 * @param maxNodes The most nodes the arena may ever hold
+	 */
+	public NodeArena(int capacity, int maxNodes)
+	{
+		if (maxNodes < 1) {
+			throw new IllegalArgumentException("maxNodes=" + maxNodes);
+		}
+		this.maxNodes = maxNodes;
+		capacity = Math.max(1, Math.min(capacity, maxNodes));
+		move = new int[capacity];
+		value = new int[capacity];
+		chosenMove = new int[capacity];
+		firstChild = new int[capacity];
+		numChildren = new int[capacity];
+	}
+
+	/**
+	 * Free every node and create a new root.
+	 * @return The root, which has no move
+	 */
+	public int reset()
+	{
+		size = 0;
+		refused = 0;
+		return allocate(1, -1);
+	}
+
+	/**
+	 * The node budget a new arena gets by default: a tenth of the most
+	 * memory the JVM will use, at BYTES_PER_NODE per node.
+	 * @return The default budget
+	 */
+	public static int defaultMaxNodes()
+	{
+		long nodes = Runtime.getRuntime().maxMemory() / 10 / BYTES_PER_NODE;
+		return (int) Math.max(1024, Math.min(Integer.MAX_VALUE - 8, nodes));
+	}
+
+	public int maxNodes()
+	{
+		return maxNodes;
+	}
+
+	/**
+	 * Get the number of expansions refused for lack of room since the
+	 * last reset.
+	 * @return The number of refused expansions
+	 */
+	public int refused()
+	{
+		return refused;
+	}
+
+	/**
+	 * Get the number of expansions refused for lack of room over the
+	 * life of the arena.
+	 * @return The number of refused expansions
+	 */
+	public long totalRefused()
+	{
+		return totalRefused;
+	}
+
+	/**
+	 * Get the number of nodes in use
+	 * @return The number of nodes
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Give a node a child for every legal move in a position, if the
+	 * budget allows.
+	 * @param node A leaf
+	 * @param board The position at the node
+	 * @return The number of children added, or -1 if there was no room
+	 */
+	public int expand(int node, Connect4Board board)
+	{
+		final int cols = board.numCols();
+		final int rows = board.numRows();
+		int n = 0;
+		for (int c = 0; c < cols; c++) {
+			if (board.height(c) < rows) n++;
+		}
+		if (size + n > maxNodes) {
+			refused++;
+			totalRefused++;
+			return -1;
+		}
+		int first = allocate(n, -1);
+		int child = first;
+		for (int c = 0; c < cols; c++) {
+			if (board.height(c) < rows) move[child++] = c;
+		}
+		firstChild[node] = first;
+		numChildren[node] = n;
+		return n;
+	}
+
+	/**
+	 * List the moves of a position along with their child nodes, expanding
+	 * the node first if it is a leaf. Without a node (node == -1), or if
+	 * the budget does not allow expanding it, every child is -1.
+	 * @param node The node of the position, or -1
+	 * @param board The position
+	 * @param moves Gets the legal moves
+	 * @param children Gets the child for each move, or -1
+	 * @return The number of moves
+	 */
+	public int listChildren(int node, Connect4Board board, int[] moves,
+			int[] children)
+	{
+		if (node >= 0 && (numChildren[node] > 0 || expand(node, board) > 0)) {
+			int first = firstChild[node];
+			int n = numChildren[node];
+			for (int i = 0; i < n; i++) {
+				moves[i] = move[first + i];
+				children[i] = first + i;
+			}
+			return n;
+		}
+		int n = 0;
+		for (int c = 0; c < board.numCols(); c++) {
+			if (board.height(c) < board.numRows()) {
+				moves[n] = c;
+				children[n++] = -1;
+			}
+		}
+		return n;
+	}
+
+	public boolean isLeaf(int node)
+	{
+		return numChildren[node] == 0;
+	}
+
+	public int firstChild(int node)
+	{
+		return firstChild[node];
+	}
+
+	public int numChildren(int node)
+	{
+		return numChildren[node];
+	}
+
+	/**
+	 * Find the child of a node reached by a move.
+	 * @param node The node
+	 * @param col The move
+	 * @return The child, or -1 if there is none
+	 */
+	public int child(int node, int col)
+	{
+		int first = firstChild[node];
+		for (int c = first; c < first + numChildren[node]; c++) {
+			if (move[c] == col) return c;
+		}
+		return -1;
+	}
+
+	// The move that leads to the node, or -1 for the root.
+	public int move(int node)
+	{
+		return move[node];
+	}
+
+	public int value(int node)
+	{
+		return value[node];
+	}
+
+	public void setValue(int node, int v)
+	{
+		value[node] = v;
+	}
+
+	// The move the last search chose at the node, or -1.
+	public int chosenMove(int node)
+	{
+		return chosenMove[node];
+	}
+
+	public void setChosenMove(int node, int col)
+	{
+		chosenMove[node] = col;
+	}
+
+	// Allocate n consecutive leaves with no move chosen yet, growing the
+	// arrays if needed, and return the first.
+	private int allocate(int n, int col)
+	{
+		if (size + n > move.length) {
+			int capacity = Math.max(size + n,
+					(int) Math.min(maxNodes, 2L * move.length));
+			move = java.util.Arrays.copyOf(move, capacity);
+			value = java.util.Arrays.copyOf(value, capacity);
+			chosenMove = java.util.Arrays.copyOf(chosenMove, capacity);
+			firstChild = java.util.Arrays.copyOf(firstChild, capacity);
+			numChildren = java.util.Arrays.copyOf(numChildren, capacity);
+		}
+		int first = size;
+		for (int i = first; i < first + n; i++) {
+			move[i] = col;
+			value[i] = 0;
+			chosenMove[i] = -1;
+			firstChild[i] = 0;
+			numChildren[i] = 0;
+		}
+		size += n;
+		return first;
+	}
+}
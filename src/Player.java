@@ -39,4 +39,74 @@ public interface Player
      */
     void calcMove(Connect4Board board, int oppMoveCol, Arbitrator arb) 
         throws TimeUpException;
+
+
+    /**
+     * Hand the player its own source of randomness for the coming game.
+     * The game calls this method once, right after init(). Players that
+     * make random choices should draw them from this generator (and split
+     * it for any helper threads) so that a seeded game can be replayed
+     * exactly.
+     * 
+     * @param rand a generator private to this player for this game
+     */
+    default void setRandom(java.util.SplittableRandom rand) {
+    }
+
+
+    /**
+     * Tell the player how many pieces in a row make a line in the coming
+     * game (4 unless the game was started with another length). The game
+     * calls this method once, right before init(). Players that ignore it
+     * simply play as if it were 4.
+     * 
+     * @param winLength the number of pieces in a row that score
+     */
+    default void setWinLength(int winLength) {
+    }
+
+
+    /**
+     * Tell the player the rules of the coming game, for players whose
+     * search needs to know when a game is over and who won. The game
+     * calls this method once, right before init(), after setWinLength().
+     * 
+     * @param rules the rules of the coming game
+     */
+    default void setRules(GameRules rules) {
+    }
+
+
+    /**
+     * Hand the player the engine parameters to use in the coming game.
+     * The game calls this method once, right before init(). Players
+     * that have no parameters can ignore it; those that do should fall
+     * back to EngineConfig.global() if it is never called.
+     * 
+     * @param config the parameters, see EngineConfig for the keys
+     */
+    default void setConfig(EngineConfig config) {
+    }
+
+
+    /**
+     * Tell the player the game is done with it: its game is over, or it
+     * is being replaced. The game calls this method at most once per
+     * player and never calls calcMove() after it. Players that keep
+     * threads or other resources between moves should release them here,
+     * as the game makes a new player for every game.
+     */
+    default void dispose() {
+    }
+
+    /**
+     * Get how often, over the game so far, the player's search wanted to
+     * grow its tree past the node budget (see search.nodeBudget in
+     * EngineConfig) and had to do without. The game reports it once the
+     * game is over. Players without a search tree never run out.
+     * @return The number of refused tree expansions
+     */
+    default long getRefusedExpansions() {
+        return 0;
+    }
 }
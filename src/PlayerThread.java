@@ -18,8 +18,20 @@ class PlayerThread extends Thread
     // player can't do any damage to the real board.
     public PlayerThread (
         Player player, Connect4Board board, int oppMoveCol, Arbitrator arb) {
+        this(player,board,
+             new Connect4Board(board.numRows(),board.numCols()),
+             oppMoveCol,arb);
+    }
+
+    // The same, but copy the board into a scratch board the caller
+    // supplies, so that the referee can reuse one board per player
+    // instead of allocating a new one for every move.
+    public PlayerThread (
+        Player player, Connect4Board board, Connect4Board scratch,
+        int oppMoveCol, Arbitrator arb) {
         this.player = player;
-        this.board = new Connect4Board(board);
+        this.board = scratch;
+        this.board.copyFrom(board);
         this.oppMoveCol = oppMoveCol;
         this.arb = arb;
     }
@@ -6,7 +6,7 @@
  */
 public class RandomPlayer implements Player
 {
-    private static java.util.Random rand = new java.util.Random();
+    private java.util.SplittableRandom rand = new java.util.SplittableRandom();
 
     @Override
     public String name() {
@@ -17,6 +17,11 @@ public class RandomPlayer implements Player
     public void init(int id, int msecPerMove, int rows, int cols) {
     }
 
+    @Override
+    public void setRandom(java.util.SplittableRandom rand) {
+        this.rand = rand;
+    }
+
     @Override
     public void calcMove(
         Connect4Board board, int oppMoveCol, Arbitrator arb) 
@@ -0,0 +1,158 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Re-analyze recorded games with a chosen player. Every position of every
+ * selected game is rebuilt move by move and handed to the player's
+ * calcMove() under the same time limit the referee would apply. For each
+ * position we report how long the player took and whether it picked the
+ * move that was actually played, which turns recorded games into a
+ * benchmark made of realistic positions.
+ *
+ * @author Siyang Liu
+ *
+ */
+public class Replay
+{
+	private static void usage()
+	{
+		System.err.println();
+		System.err.println("usage: Replay [options] playerClass recordFile...");
+		System.err.println();
+		System.err.println("    t - Time allowed per move (msec), default 250.");
+		System.err.println("    g - Comma separated game numbers to replay,");
+		System.err.println("        counting from 0; default is every game.");
+		System.err.println("    q - Quiet: only print the summary.");
+		System.err.println();
+		System.err.println("The player class must be in CLASSPATH.");
+		System.err.println();
+		System.exit(1);
+	}
+
+	public static void main(String[] args)
+		throws Exception
+	{
+		int msec = 250;
+		List<Integer> games = null;
+		boolean quiet = false;
+		String playerClass = null;
+		List<File> files = new ArrayList<File>();
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-t")) {
+				if (++i == args.length) usage();
+				msec = Integer.parseInt(args[i]);
+				if (msec < 0) usage();
+				continue;
+			}
+			if (args[i].equals("-g")) {
+				if (++i == args.length) usage();
+				games = new ArrayList<Integer>();
+				for (String g : args[i].split(",")) {
+					games.add(Integer.parseInt(g.trim()));
+				}
+				continue;
+			}
+			if (args[i].equals("-q")) {
+				quiet = true;
+				continue;
+			}
+			if (args[i].startsWith("-")) usage();
+			if (playerClass == null) {
+				playerClass = args[i];
+			}
+			else {
+				files.add(new File(args[i]));
+			}
+		}
+		if (playerClass == null || files.isEmpty()) usage();
+
+		GameDatabase db = new GameDatabase(files.toArray(new File[0]));
+		if (games == null) {
+			games = new ArrayList<Integer>();
+			for (int g = 0; g < db.numGames(); g++) {
+				games.add(g);
+			}
+		}
+
+		Class<?> cl = ClassLoader.getSystemClassLoader().loadClass(playerClass);
+		int plies = 0, agreed = 0, timeouts = 0;
+		long totalNanos = 0, maxNanos = 0;
+		for (int g : games) {
+			GameRecord rec = db.game(g);
+			// A fresh pair of players per game, set up for the game's rules
+			// just like the referee does.
+			Player[] players = { null,
+					(Player) cl.getDeclaredConstructor().newInstance(),
+					(Player) cl.getDeclaredConstructor().newInstance() };
+			GameRules rules = GameRules.forName(rec.getGame(),
+					rec.getWinLength());
+			for (int id = 1; id <= 2; id++) {
+				players[id].setWinLength(rec.getWinLength());
+				players[id].setRules(rules);
+				players[id].setConfig(EngineConfig.global());
+				players[id].init(id, msec, rec.numRows(), rec.numCols());
+			}
+			players[1].setRandom(new java.util.SplittableRandom(2L * g));
+			players[2].setRandom(new java.util.SplittableRandom(2L * g + 1));
+
+			Connect4Board board = rec.boardAfter(rec.getNumSeedMoves());
+			for (int i = rec.getNumSeedMoves(); i < rec.getNumMoves(); i++) {
+				int id = rec.getId(i);
+				int played = rec.getCol(i);
+				int oppMoveCol = (i == rec.getNumSeedMoves()) ? -1
+						: rec.getCol(i - 1);
+
+				Arbitrator arb = new Arbitrator(msec, -1, 0);
+				long nanos = calcMove(players[id], board, oppMoveCol, arb, msec);
+				int chosen = (nanos < 0) ? -1 : arb.getMove();
+				if (nanos < 0) {
+					timeouts++;
+					nanos = -nanos;
+				}
+
+				plies++;
+				totalNanos += nanos;
+				maxNanos = Math.max(maxNanos, nanos);
+				if (chosen == played) agreed++;
+				if (!quiet) {
+					System.out.println("game " + g + " ply " + i + " player #"
+							+ id + ": played " + played + ", " + playerClass
+							+ " chose " + chosen + " in " + (nanos / 1000000)
+							+ " ms" + ((chosen == played) ? "" : "  *"));
+				}
+				board.move(played, id);
+			}
+			players[1].dispose();
+			players[2].dispose();
+		}
+
+		System.out.println(playerClass + " on " + games.size() + " games, "
+				+ plies + " positions:");
+		if (plies == 0) return;
+		System.out.println("  agreement: " + agreed + "/" + plies + " ("
+				+ (100 * agreed / plies) + "%)");
+		System.out.println("  mean time: " + (totalNanos / plies / 1000000)
+				+ " ms, max time: " + (maxNanos / 1000000) + " ms");
+		System.out.println("  timeouts:  " + timeouts);
+	}
+
+	// Run one calcMove() in a PlayerThread with the referee's time limit
+	// (msecPerMove plus 20%). Returns the elapsed time in nanoseconds, or
+	// minus the elapsed time if the player had to be abandoned.
+	private static long calcMove(Player player, Connect4Board board,
+			int oppMoveCol, Arbitrator arb, int msecPerMove)
+		throws InterruptedException
+	{
+		PlayerThread pt = new PlayerThread(player, board, oppMoveCol, arb);
+		pt.setDaemon(true);
+		long start = System.nanoTime();
+		pt.start();
+		pt.join(Math.max(1, msecPerMove * 120 / 100));
+		arb.timeUp();
+		pt.join(500);
+		long nanos = System.nanoTime() - start;
+		return pt.isAlive() ? -nanos : nanos;
+	}
+}
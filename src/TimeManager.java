@@ -0,0 +1,241 @@
+/**
+ * Decides how long a searching player should think about each move.
+ *
+ * At the start of a move the manager works out two limits. The hard limit
+ * is the most we are ever willing to spend: the time allowed, minus a
+ * safety margin. Under a chess clock, "the time allowed" is a share of
+ * what is left on the clock, and a critical move may take up to three
+ * shares. The soft limit is what we would normally like to spend,
+ * which depends on the phase of the game: little in the opening, where
+ * deep searches rarely change the move, most in the middle game, and less
+ * again near the end, where few empty cells remain and the search quickly
+ * sees everything. A forced move gets no thought at all.
+ *
+ * After each iteration of iterative deepening the player reports its best
+ * move and value, and asks whether to go on. The answer is no once the
+ * soft limit has passed, or if the next iteration (estimated from how fast
+ * the last ones grew) would not finish before the hard limit. The soft
+ * limit shrinks while the best move stays the same and grows, up to the
+ * hard limit, when the best move or its value just changed.
+ *
+ * @author Siyang Liu
+ *
+ */
+public class TimeManager
+{
+	// Share of the hard limit to spend normally, by phase; the defaults
+	// of the time.*Share keys of EngineConfig.
+	private static final double OPENING_SHARE = 0.5;
+	private static final double MIDDLEGAME_SHARE = 0.9;
+	private static final double ENDGAME_SHARE = 0.6;
+
+	// Soft limit adjustments for a stable or an unstable best move.
+	private static final double STABLE_SCALE = 0.6;
+	private static final double UNSTABLE_SCALE = 1.5;
+	private static final int STABLE_ITERATIONS = 3;
+
+	// Keep this much (msec, and share of the move time) in hand; the
+	// defaults of time.safetyMsec and time.safetyShare.
+	private static final int SAFETY_MSEC = 10;
+	private static final double SAFETY_SHARE = 0.05;
+
+	// Bounds on the estimated growth from one iteration to the next.
+	private static final double MIN_GROWTH = 1.5;
+	private static final double MAX_GROWTH = 8.0;
+	private static final double DEFAULT_GROWTH = 4.0;
+
+	private final int msecPerMove;
+	private final double openingShare, middlegameShare, endgameShare;
+	private final int safetyMsec;
+	private final double safetyShare;
+
+	private long start;
+	private long budgetNanos, softNanos, hardNanos;
+	private long lastIterationStart;
+	private long lastIterationNanos, prevIterationNanos;
+	private int bestMove, bestValue;
+	private int iterations, stableIterations;
+	private boolean unstable;
+
+	public TimeManager(int msecPerMove)
+	{
+		this(msecPerMove, new EngineConfig());
+	}
+
+	/**
+	 * Create a time manager with the margins and phase shares of a
+	 * configuration.
+	 * @param msecPerMove The fixed time per move, if there is no clock
+	 * @param config The configuration, whose time.* keys are used
+	 */
+	public TimeManager(int msecPerMove, EngineConfig config)
+	{
+		this.msecPerMove = msecPerMove;
+		this.openingShare = config.getDouble("time.openingShare", OPENING_SHARE);
+		this.middlegameShare = config.getDouble("time.middlegameShare",
+				MIDDLEGAME_SHARE);
+		this.endgameShare = config.getDouble("time.endgameShare", ENDGAME_SHARE);
+		this.safetyMsec = config.getInt("time.safetyMsec", SAFETY_MSEC);
+		this.safetyShare = config.getDouble("time.safetyShare", SAFETY_SHARE);
+	}
+
+	/**
+	 * Start timing a move under a fixed time per move.
+	 * @param board The position to move in
+	 */
+	public void startMove(Connect4Board board)
+	{
+		startMove(board, new Arbitrator(msecPerMove, -1, 0));
+	}
+
+	/**
+	 * Start timing a move under the time control the game gave us.
+	 * @param board The position to move in
+	 * @param arb The arbitrator for the move, which knows the time control
+	 */
+	public void startMove(Connect4Board board, Arbitrator arb)
+	{
+		start = System.nanoTime();
+
+		// With a clock, plan to spread what is left evenly over the moves
+		// we may still have to make (plus the increment we get back for
+		// each), but allow a critical move up to three times its share.
+		long budget = msecPerMove;
+		long limit = msecPerMove;
+		if (arb.getMsecRemaining() >= 0) {
+			int movesLeft = Math.max(1, (board.numEmptyCells() + 1) / 2);
+			budget = arb.getMsecRemaining() / movesLeft + arb.getMsecIncrement();
+			limit = Math.min(arb.getMsecRemaining(), 3 * budget);
+		}
+		long hard = Math.max(1,
+				limit - Math.max(safetyMsec, (long) (limit * safetyShare)));
+
+		double filled = (double) board.numOccupiedCells() / board.numCells();
+		double share = (filled < 1.0 / 3) ? openingShare
+				: (filled < 2.0 / 3) ? middlegameShare : endgameShare;
+
+		// With only one legal move there is nothing to think about.
+		int legalMoves = 0;
+		for (int c = 0; c < board.numCols(); c++) {
+			if (board.isValidMove(c)) legalMoves++;
+		}
+		if (legalMoves <= 1) share = 0;
+
+		hardNanos = hard * 1000000L;
+		budgetNanos = Math.min(budget, hard) * 1000000L;
+		softNanos = (long) (share * budgetNanos);
+		lastIterationStart = start;
+		lastIterationNanos = prevIterationNanos = 0;
+		bestMove = -1;
+		iterations = stableIterations = 0;
+		unstable = false;
+	}
+
+	/**
+	 * Report a completed iteration.
+	 * @param move The best move found by it
+	 * @param value The value of that move
+	 */
+	public void iterationDone(int move, int value)
+	{
+		long now = System.nanoTime();
+		prevIterationNanos = lastIterationNanos;
+		lastIterationNanos = now - lastIterationStart;
+		lastIterationStart = now;
+
+		if (iterations > 0 && move == bestMove && value >= bestValue) {
+			stableIterations++;
+			unstable = false;
+		}
+		else {
+			stableIterations = 0;
+			unstable = iterations > 0;
+		}
+		bestMove = move;
+		bestValue = value;
+		iterations++;
+	}
+
+	/**
+	 * Decide whether to stop iterative deepening.
+	 * @return True if another iteration is not worth starting
+	 */
+	public boolean shouldStop()
+	{
+		long elapsed = System.nanoTime() - start;
+		if (elapsed >= softLimitNanos()) return true;
+		return elapsed + estimateNextIteration() > hardNanos;
+	}
+
+	/**
+	 * Get the current soft limit, taking move stability into account.
+	 * @return The soft limit in msec since the start of the move
+	 */
+	public int softLimit()
+	{
+		return (int) (softLimitNanos() / 1000000L);
+	}
+
+	/**
+	 * Get the time this move may take on average: the time per move, or
+	 * under a clock, this move's share of what is left. Meant for players
+	 * that can use any amount of time (rather than deepening in steps),
+	 * which should simply stop here.
+	 * @return The budget in msec since the start of the move
+	 */
+	public int budget()
+	{
+		return (int) (budgetNanos / 1000000L);
+	}
+
+	/**
+	 * Get the hard limit.
+	 * @return The hard limit in msec since the start of the move
+	 */
+	public int hardLimit()
+	{
+		return (int) (hardNanos / 1000000L);
+	}
+
+	/**
+	 * Get the moment the hard limit passes, for searches that check the
+	 * clock at every node rather than only between iterations.
+	 * @return The hard limit as a System.nanoTime() value
+	 */
+	public long deadline()
+	{
+		return start + hardNanos;
+	}
+
+	/**
+	 * Get the time spent on the current move so far.
+	 * @return Elapsed time in msec
+	 */
+	public int elapsed()
+	{
+		return (int) ((System.nanoTime() - start) / 1000000L);
+	}
+
+	private long softLimitNanos()
+	{
+		if (unstable) {
+			return Math.min(hardNanos, (long) (softNanos * UNSTABLE_SCALE));
+		}
+		if (stableIterations >= STABLE_ITERATIONS) {
+			return (long) (softNanos * STABLE_SCALE);
+		}
+		return softNanos;
+	}
+
+	// Iterations grow roughly geometrically, so guess that the next one
+	// will grow by the same factor as the last one did.
+	private long estimateNextIteration()
+	{
+		double growth = DEFAULT_GROWTH;
+		if (prevIterationNanos > 0) {
+			growth = (double) lastIterationNanos / prevIterationNanos;
+			growth = Math.max(MIN_GROWTH, Math.min(MAX_GROWTH, growth));
+		}
+		return (long) (lastIterationNanos * growth);
+	}
+}
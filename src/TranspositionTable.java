@@ -0,0 +1,129 @@
+/**
+ * A fixed-size transposition table for the search players: a cache of
+ * search results keyed by Connect4Board.canonicalHash(), so a position and
+ * its mirror image share one entry (callers convert stored moves with
+ * canonicalCol()). It is meant to live as long as the player does, so
+ * each move starts from what earlier moves already worked out.
+ *
+ * Entries are kept in parallel primitive arrays rather than objects. Each
+ * slot holds the full key, the value, the depth that value was searched
+ * to, whether the value is exact or only a bound, and the best move found.
+ * When two positions map to the same slot the deeper search wins.
+ *
+ * Not thread-safe: a player must not search from two threads at once.
+ *
+ * @author Siyang Liu
+ *
+ */
+public class TranspositionTable
+{
+	// Kinds of entries. A lower (upper) bound means the real value is at
+	// least (at most) the stored one, because the search was cut off. A
+	// move-only entry just remembers a good move to try first.
+	public static final int EXACT = 1;
+	public static final int LOWER = 2;
+	public static final int UPPER = 3;
+	public static final int MOVE_ONLY = 4;
+
+	private final long[] keys;
+	private final int[] values;
+	// depth << 16 | (move + 1) << 4 | flag, 0 for an empty slot
+	private final int[] info;
+	private final int mask;
+
+	/**
+	 * Create a table.
+	 * @param entries Number of slots, rounded up to a power of two
+	 */
+	public TranspositionTable(int entries)
+	{
+		int size = Integer.highestOneBit(Math.max(1, entries - 1)) << 1;
+		keys = new long[size];
+		values = new int[size];
+		info = new int[size];
+		mask = size - 1;
+	}
+
+	public int size()
+	{
+		return keys.length;
+	}
+
+	public void clear()
+	{
+		java.util.Arrays.fill(info, 0);
+	}
+
+	/**
+	 * Look up a position.
+	 * @param key The hash of the position
+	 * @return The slot of the entry for the position, or -1 if there is none
+	 */
+	public int find(long key)
+	{
+		int slot = index(key);
+		return (info[slot] != 0 && keys[slot] == key) ? slot : -1;
+	}
+
+	public int value(int slot)
+	{
+		return values[slot];
+	}
+
+	public int depth(int slot)
+	{
+		return info[slot] >>> 16;
+	}
+
+	public int flag(int slot)
+	{
+		return info[slot] & 0xf;
+	}
+
+	// The best move stored for the slot, or -1 if none.
+	public int move(int slot)
+	{
+		return ((info[slot] >>> 4) & 0xfff) - 1;
+	}
+
+	/**
+	 * Store a search result. An existing entry for a different position is
+	 * only replaced by a search at least as deep.
+	 * @param key The hash of the position
+	 * @param depth The depth the position was searched to
+	 * @param value The value found
+	 * @param flag EXACT, LOWER or UPPER
+	 * @param move The best move found, or -1
+	 */
+	public void store(long key, int depth, int value, int flag, int move)
+	{
+		int slot = index(key);
+		if (info[slot] != 0 && keys[slot] != key
+				&& (info[slot] >>> 16) > depth && flag(slot) != MOVE_ONLY) {
+			return;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		info[slot] = (depth << 16) | ((move + 1) << 4) | flag;
+	}
+
+	/**
+	 * Remember a move to try first in a position, without a value. Does
+	 * not overwrite a real search result.
+	 * @param key The hash of the position
+	 * @param move The move
+	 */
+	public void storeMove(long key, int move)
+	{
+		int slot = index(key);
+		if (info[slot] != 0 && flag(slot) != MOVE_ONLY) return;
+		keys[slot] = key;
+		values[slot] = 0;
+		info[slot] = ((move + 1) << 4) | MOVE_ONLY;
+	}
+
+	private int index(long key)
+	{
+		return (int) (key ^ (key >>> 32)) & mask;
+	}
+}
@@ -0,0 +1,383 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tune engine parameters (see EngineConfig) by self-play, with SPSA
+ * (simultaneous perturbation stochastic approximation). Each iteration
+ * nudges every parameter up or down at random at once, plays the engine
+ * with the nudged-up parameters against itself with the nudged-down ones,
+ * and moves every parameter in the direction of the side that won, by an
+ * amount that shrinks as the run goes on. Two games per iteration are
+ * enough for an estimate, if a noisy one; more give a steadier one.
+ *
+ * Games are played in pairs from the same random opening, each side
+ * moving first once, through headless Connect4Game matches, as many pairs
+ * at a time as there are processors. Pondering is turned off so that
+ * games running side by side do not steal each other's time.
+ *
+ * After every iteration the state of the run goes to a checkpoint file,
+ * and the current parameters, on top of the base configuration, to the
+ * output file. A run started with an existing checkpoint file picks up
+ * where it left off. The checkpoint records the options that set the
+ * course of the run (-n, -a, -cp and the parameters), and a run given
+ * different ones refuses to resume from it.
+ *
+ * Parameters are in units of their scale: a perturbation is c_k scales,
+ * and a step is a_k times the estimated gradient, in scales. By default a
+ * is chosen so that the first step, even if one side wins every game, is
+ * half the first perturbation; the usual steps are smaller still.
+ *
+ * @author Siyang Liu
+ *
+ */
+public class Tuner
+{
+	// The usual SPSA gain sequence exponents.
+	private static final double ALPHA = 0.602;
+	private static final double GAMMA = 0.101;
+
+	private static void usage()
+	{
+		System.err.println();
+		System.err.println("usage: Tuner [options] playerClass");
+		System.err.println();
+		System.err.println("    n - Iterations to run in all, default 200.");
+		System.err.println("    g - Games per iteration, even, default 16.");
+		System.err.println("    t - Time allowed per move (msec), default 50.");
+		System.err.println("    r - Number of rows, default 6.");
+		System.err.println("    c - Number of columns, default 7.");
+		System.err.println("    k - Pieces in a row that count, default 4.");
+		System.err.println(" game - first or most, default most.");
+		System.err.println("   nr - Random opening moves, even, default 4.");
+		System.err.println("    j - Games to play at once, default the number");
+		System.err.println("        of processors.");
+		System.err.println("    a - Step size, default such that the first step");
+		System.err.println("        is at most half a perturbation.");
+		System.err.println("   cp - Perturbation size, default 1.0.");
+		System.err.println("param - A parameter to tune, as");
+		System.err.println("        key=start,min,max,scale; may be repeated.");
+		System.err.println("        Default: the eval.* weights.");
+		System.err.println("config - Base engine parameters file.");
+		System.err.println("  set - One base engine parameter, key=value.");
+		System.err.println(" ckpt - Checkpoint file, default tuner.ckpt.");
+		System.err.println("  out - Output file, default tuned.properties.");
+		System.err.println(" seed - Random seed, default 1.");
+		System.err.println();
+		System.err.println("The player class must be in CLASSPATH.");
+		System.err.println();
+		System.exit(1);
+	}
+
+	// A parameter being tuned, and its current value.
+	private static class Param
+	{
+		final String spec;
+		final String key;
+		final double min, max, scale;
+		final boolean integer;
+		double value;
+
+		Param(String spec)
+		{
+			int eq = spec.indexOf('=');
+			String[] f = spec.substring(eq + 1).split(",");
+			if (eq <= 0 || f.length != 4) {
+				throw new IllegalArgumentException("bad param: " + spec);
+			}
+			this.spec = spec.trim();
+			key = spec.substring(0, eq).trim();
+			value = Double.parseDouble(f[0]);
+			min = Double.parseDouble(f[1]);
+			max = Double.parseDouble(f[2]);
+			scale = Double.parseDouble(f[3]);
+			// Keys whose start and bounds are whole numbers hold integers.
+			integer = isWhole(f[0]) && isWhole(f[1]) && isWhole(f[2]);
+			if (!(min <= value && value <= max && scale > 0)) {
+				throw new IllegalArgumentException("bad param: " + spec);
+			}
+		}
+
+		static boolean isWhole(String s)
+		{
+			try {
+				Long.parseLong(s.trim());
+				return true;
+			}
+			catch (NumberFormatException e) {
+				return false;
+			}
+		}
+
+		double clamp(double v)
+		{
+			return Math.max(min, Math.min(max, v));
+		}
+
+		String format(double v)
+		{
+			return integer ? Long.toString(Math.round(v)) : Double.toString(v);
+		}
+	}
+
+	public static void main(String[] args)
+		throws Exception
+	{
+		int iterations = 200;
+		int gamesPerIteration = 16;
+		int msec = 50;
+		int rows = 6, cols = 7, winLength = 4;
+		String game = "most";
+		int numRandMoves = 4;
+		int threads = Runtime.getRuntime().availableProcessors();
+		double a = Double.NaN, c = 1.0;
+		List<Param> params = new ArrayList<Param>();
+		EngineConfig base = new EngineConfig();
+		List<String> settings = new ArrayList<String>();
+		File ckpt = new File("tuner.ckpt");
+		File out = new File("tuned.properties");
+		long seed = 1;
+		String playerClass = null;
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String opt = args[i];
+				if (!opt.startsWith("-")) {
+					if (playerClass != null) usage();
+					playerClass = opt;
+					continue;
+				}
+				if (++i == args.length) usage();
+				String arg = args[i];
+				switch (opt) {
+					case "-n": iterations = Integer.parseInt(arg); break;
+					case "-g": gamesPerIteration = Integer.parseInt(arg); break;
+					case "-t": msec = Integer.parseInt(arg); break;
+					case "-r": rows = Integer.parseInt(arg); break;
+					case "-c": cols = Integer.parseInt(arg); break;
+					case "-k": winLength = Integer.parseInt(arg); break;
+					case "-game": game = arg; break;
+					case "-nr": numRandMoves = Integer.parseInt(arg); break;
+					case "-j": threads = Integer.parseInt(arg); break;
+					case "-a": a = Double.parseDouble(arg); break;
+					case "-cp": c = Double.parseDouble(arg); break;
+					case "-param": params.add(new Param(arg)); break;
+					case "-config": base = EngineConfig.load(new File(arg)); break;
+					case "-set": settings.add(arg); break;
+					case "-ckpt": ckpt = new File(arg); break;
+					case "-out": out = new File(arg); break;
+					case "-seed": seed = Long.parseLong(arg); break;
+					default: usage();
+				}
+			}
+		}
+		catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			usage();
+		}
+		if (playerClass == null || iterations < 1 || gamesPerIteration < 2
+				|| (gamesPerIteration % 2) == 1 || msec < 1 || threads < 1
+				|| !(c > 0) || a <= 0
+				|| (numRandMoves % 2) == 1 || numRandMoves > rows * cols
+				|| GameRules.forName(game, winLength) == null) {
+			usage();
+		}
+		for (String setting : settings) {
+			base.set(setting);
+		}
+		EngineConfig played = new EngineConfig(base);
+		played.set("search.ponder", "false");
+		if (params.isEmpty()) {
+			params.add(new Param("eval.line=16,1,64,4"));
+			params.add(new Param("eval.threat=0,-16,16,2"));
+			params.add(new Param("eval.center=0,-16,16,2"));
+		}
+
+		// The first step is a_0 * result / (2 * c) scales, with the result
+		// from -1 to 1; make the largest one c / 2.
+		if (Double.isNaN(a)) {
+			a = c * c * Math.pow(1 + stability(iterations), ALPHA);
+		}
+		EngineConfig course = course(iterations, a, c, params);
+		int start = 0;
+		if (ckpt.exists()) {
+			EngineConfig state = EngineConfig.load(ckpt);
+			for (String key : new String[] { "tuner.iterations", "tuner.a",
+					"tuner.c", "tuner.params" }) {
+				if (!course.get(key, "").equals(state.get(key, null))) {
+					System.err.println(ckpt + " is from a run with " + key + "="
+							+ state.get(key, "(unset)") + ", not "
+							+ course.get(key, "") + "; remove it to start over.");
+					System.exit(1);
+				}
+			}
+			start = state.getInt("tuner.iteration", 0);
+			seed = Long.parseLong(state.get("tuner.seed", Long.toString(seed)));
+			for (Param p : params) {
+				p.value = p.clamp(state.getDouble("theta." + p.key, p.value));
+			}
+			System.out.println("resuming from " + ckpt + " at iteration "
+					+ start);
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "Tuner games");
+			t.setDaemon(true);
+			return t;
+		});
+		for (int k = start; k < iterations; k++) {
+			double ak = a / Math.pow(k + 1 + stability(iterations), ALPHA);
+			double ck = c / Math.pow(k + 1, GAMMA);
+
+			// Each iteration's generator comes straight from the seed and
+			// the iteration number, so a resumed run makes the same choices
+			// an uninterrupted one would.
+			SplittableRandom rand = Connect4Game.indexedRandom(seed, k);
+			assert !overlaps(seed, k, params.size() + gamesPerIteration / 2)
+					: "iterations " + (k + 1) + " and " + (k + 2) + " share draws";
+			int[] delta = new int[params.size()];
+			EngineConfig plus = new EngineConfig(played);
+			EngineConfig minus = new EngineConfig(played);
+			for (int i = 0; i < params.size(); i++) {
+				Param p = params.get(i);
+				delta[i] = rand.nextBoolean() ? 1 : -1;
+				plus.set(p.key, p.format(p.clamp(p.value + ck * delta[i] * p.scale)));
+				minus.set(p.key, p.format(p.clamp(p.value - ck * delta[i] * p.scale)));
+			}
+
+			// Play the games in pairs, plus as player #1 throughout.
+			List<Future<int[]>> pairs = new ArrayList<Future<int[]>>();
+			for (int g = 0; g < gamesPerIteration / 2; g++) {
+				long pairSeed = rand.nextLong();
+				final int r = rows, cl = cols, w = winLength, nr = numRandMoves;
+				final int t = msec;
+				final String gm = game, pc = playerClass;
+				pairs.add(pool.submit(() -> playPair(r, cl, w, gm, t, nr, pc,
+						plus, minus, pairSeed)));
+			}
+			int plusWins = 0, minusWins = 0;
+			for (Future<int[]> f : pairs) {
+				int[] won = f.get();
+				plusWins += won[1];
+				minusWins += won[2];
+			}
+
+			// The result, from -1 (minus won every game) to 1, stands in
+			// for the difference in strength between the two sides.
+			double result = (double) (plusWins - minusWins) / gamesPerIteration;
+			for (int i = 0; i < params.size(); i++) {
+				Param p = params.get(i);
+				double gradient = result / (2 * ck * delta[i]);
+				p.value = p.clamp(p.value + ak * gradient * p.scale);
+			}
+
+			StringBuilder line = new StringBuilder();
+			line.append("iteration ").append(k + 1).append(": +").append(plusWins)
+					.append(" -").append(minusWins).append(" =")
+					.append(gamesPerIteration - plusWins - minusWins);
+			for (Param p : params) {
+				line.append("  ").append(p.key).append('=')
+						.append(String.format("%.3f", p.value));
+			}
+			System.out.println(line);
+			checkpoint(ckpt, out, base, course, params, k + 1, seed);
+		}
+		pool.shutdown();
+		System.out.println("wrote " + out);
+	}
+
+	// Whether the first draw of iteration k + 1 is among the given number
+	// of draws of iteration k, in which case the two would share part of
+	// their sign vectors and openings.
+	private static boolean overlaps(long seed, int k, int draws)
+	{
+		long first = Connect4Game.indexedRandom(seed, k + 1).nextLong();
+		SplittableRandom prev = Connect4Game.indexedRandom(seed, k);
+		for (int i = 0; i < draws; i++) {
+			if (prev.nextLong() == first) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// The stability constant of the step size sequence, which keeps the
+	// first steps from being much bigger than the later ones.
+	private static double stability(int iterations)
+	{
+		return iterations / 10.0;
+	}
+
+	// Play two games of a headless match from the same random opening,
+	// each side moving first once. Returns the games won, indexed by id
+	// (player #1 plays with plus).
+	private static int[] playPair(int rows, int cols, int winLength,
+			String game, int msec, int numRandMoves, String playerClass,
+			EngineConfig plus, EngineConfig minus, long seed)
+		throws Exception
+	{
+		Connect4Game c4 = new Connect4Game(rows, cols, game, msec, 2,
+				numRandMoves, true, playerClass, playerClass, null);
+		c4.setQuiet(true);
+		c4.setWinLength(winLength);
+		c4.setConfig(1, plus);
+		c4.setConfig(2, minus);
+		c4.setSeed(seed);
+		c4.playMatch();
+		return new int[] { 0, c4.getGamesWon(1), c4.getGamesWon(2) };
+	}
+
+	// The options that set the course of a run: a run can only resume
+	// from a checkpoint made with the same ones.
+	private static EngineConfig course(int iterations, double a, double c,
+			List<Param> params)
+	{
+		EngineConfig course = new EngineConfig();
+		course.set("tuner.iterations", Integer.toString(iterations));
+		course.set("tuner.a", Double.toString(a));
+		course.set("tuner.c", Double.toString(c));
+		StringBuilder specs = new StringBuilder();
+		for (Param p : params) {
+			if (specs.length() > 0) specs.append(' ');
+			specs.append(p.spec);
+		}
+		course.set("tuner.params", specs.toString());
+		return course;
+	}
+
+	// Save the state of the run, then the tuned configuration. Each file
+	// is written beside its target and renamed over it, so that a run
+	// killed halfway through leaves the previous version whole.
+	private static void checkpoint(File ckpt, File out, EngineConfig base,
+			EngineConfig course, List<Param> params, int iteration, long seed)
+		throws IOException
+	{
+		EngineConfig state = new EngineConfig(course);
+		state.set("tuner.iteration", Integer.toString(iteration));
+		state.set("tuner.seed", Long.toString(seed));
+		EngineConfig tuned = new EngineConfig(base);
+		for (Param p : params) {
+			state.set("theta." + p.key, Double.toString(p.value));
+			tuned.set(p.key, p.format(p.value));
+		}
+		replace(state, ckpt, "Tuner checkpoint");
+		replace(tuned, out, "Tuned after " + iteration + " iterations");
+	}
+
+	private static void replace(EngineConfig config, File file, String comment)
+		throws IOException
+	{
+		File tmp = new File(file.getPath() + ".tmp");
+		config.store(tmp, comment);
+		Files.move(tmp.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+}
@@ -0,0 +1,45 @@
+/**
+ * An immutable snapshot of everything the GUI shows about a game. The game
+ * publishes one of these per update instead of poking at each label
+ * separately, so the GUI can apply a whole move in one go and simply skip
+ * snapshots that were superseded before it got around to drawing them.
+ *
+ * @author Siyang Liu
+ *
+ */
+class UIState
+{
+	final int maxMoveTime;
+	final int gameNum, numGames;
+	final int moveNum;
+	final int whoseTurn;
+	final String p1Name, p2Name;
+	final int p1GamesWon, p2GamesWon;
+	final int p1Points, p2Points;
+	final String status;
+	final boolean paused;
+
+	// A private copy, so the game can keep moving on its own board.
+	final Connect4Board board;
+
+	UIState(int maxMoveTime, int gameNum, int numGames, int moveNum,
+			int whoseTurn, String p1Name, String p2Name, int p1GamesWon,
+			int p2GamesWon, int p1Points, int p2Points, String status,
+			boolean paused, Connect4Board board)
+	{
+		this.maxMoveTime = maxMoveTime;
+		this.gameNum = gameNum;
+		this.numGames = numGames;
+		this.moveNum = moveNum;
+		this.whoseTurn = whoseTurn;
+		this.p1Name = p1Name;
+		this.p2Name = p2Name;
+		this.p1GamesWon = p1GamesWon;
+		this.p2GamesWon = p2GamesWon;
+		this.p1Points = p1Points;
+		this.p2Points = p2Points;
+		this.status = status;
+		this.paused = paused;
+		this.board = new Connect4Board(board);
+	}
+}